@@ -0,0 +1,135 @@
+// Compares sending block rows through binary COPY, as copyIngest does, against the batched inserts otherwise used.
+// Run with `java -cp postgresql.jar CopyIngest.java jdbc:postgresql://localhost/scratch?user=postgres`.
+// Everything is made within the bench_copy schema, which is dropped on the next run.
+//
+// - batch: the batched insert of PlymouthPostgres.insertBlocks, one transaction per flush.
+// - rewritten: as batch, with reWriteBatchedInserts set on the connection as PlymouthPostgres does by default.
+// - copy: the same rows encoded as CopyEncoder does, one COPY and transaction per flush.
+//
+// Allocations are of the calling thread alone, which covers the driver as it sends on the calling thread.
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.postgresql.PGConnection;
+
+public class CopyIngest {
+    static final int ROWS = 100_000, PER_FLUSH = 2000, ROUNDS = 3;
+    static final String[] ACTIONS = {"BREAK", "PLACE", "USE"};
+    // 2000-01-01T00:00:00Z in microseconds from the Unix epoch, which is what binary timestamps are relative to.
+    static final long POSTGRES_EPOCH_MICROS = 946_684_800_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        try (var connection = DriverManager.getConnection(args[0]);
+             var rewritten = DriverManager.getConnection(args[0] + (args[0].contains("?") ? "&" : "?") + "reWriteBatchedInserts=true")) {
+            try (var statement = connection.createStatement()) {
+                statement.execute("DROP SCHEMA IF EXISTS bench_copy CASCADE; CREATE SCHEMA bench_copy;");
+                statement.execute("CREATE TYPE bench_copy.block_action AS ENUM ('BREAK', 'PLACE', 'USE');");
+                statement.execute("CREATE TABLE bench_copy.blocks (cause_id uuid NOT NULL, cause_raw uuid, time timestamp NOT NULL, undone boolean NOT NULL DEFAULT false, " +
+                        "world smallint NOT NULL, pos bigint NOT NULL, chunk bigint NOT NULL, block int, action bench_copy.block_action, nbt_hash uuid);");
+                statement.execute("CREATE INDEX ON bench_copy.blocks USING brin (time);");
+                statement.execute("CREATE INDEX ON bench_copy.blocks (cause_id);");
+                statement.execute("CREATE INDEX ON bench_copy.blocks (world, chunk, pos);");
+            }
+            var causes = new UUID[200];
+            for (int i = 0; i < causes.length; i++) causes[i] = UUID.randomUUID();
+            for (int round = 0; round <= ROUNDS; round++) {
+                for (var mode : new String[]{"batch", "rewritten", "copy"}) {
+                    var target = mode.equals("rewritten") ? rewritten : connection;
+                    try (var statement = target.createStatement()) {
+                        statement.execute("TRUNCATE bench_copy.blocks;");
+                    }
+                    long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()), time = System.nanoTime();
+                    if (mode.equals("copy")) copy(target, causes);
+                    else batch(target, causes);
+                    time = System.nanoTime() - time;
+                    bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+                    // The first round only warms up.
+                    if (round != 0) {
+                        System.out.printf("%-9s round %d: %7.1f ms, %7.0f rows/s, %4d bytes allocated per row%n",
+                                mode, round, time / 1e6, ROWS / (time / 1e9), bytes / ROWS);
+                    }
+                }
+            }
+        }
+    }
+
+    static void batch(Connection connection, UUID[] causes) throws SQLException {
+        connection.setAutoCommit(false);
+        try (var insert = connection.prepareStatement("INSERT INTO bench_copy.blocks (cause_id, cause_raw, world, pos, chunk, block, action, nbt_hash, time) VALUES (?, ?, ?, ?, ?, ?, ?::bench_copy.block_action, ?, ?);")) {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < ROWS; i++) {
+                insert.setObject(1, causes[i % causes.length]);
+                insert.setObject(2, null);
+                insert.setShort(3, (short) 1);
+                insert.setLong(4, pos(i));
+                insert.setLong(5, chunk(i));
+                insert.setInt(6, 1 + i % 900);
+                insert.setString(7, ACTIONS[i % 3]);
+                insert.setObject(8, null);
+                insert.setTimestamp(9, new Timestamp(now + i));
+                insert.addBatch();
+                if ((i + 1) % PER_FLUSH == 0) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    static void copy(Connection connection, UUID[] causes) throws SQLException {
+        var manager = connection.unwrap(PGConnection.class).getCopyAPI();
+        var buffer = ByteBuffer.allocate(1 << 16);
+        long now = System.currentTimeMillis();
+        connection.setAutoCommit(false);
+        try {
+            for (int from = 0; from < ROWS; from += PER_FLUSH) {
+                // Reused between flushes as CopyEncoder does.
+                buffer.clear();
+                buffer.put(new byte[]{'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0, 0, 0, 0, 0, 0, 0, 0, 0});
+                for (int i = from; i < from + PER_FLUSH; i++) {
+                    if (buffer.remaining() < 256) buffer = ByteBuffer.wrap(Arrays.copyOf(buffer.array(), buffer.capacity() << 1)).position(buffer.position());
+                    var cause = causes[i % causes.length];
+                    var action = ACTIONS[i % 3].getBytes(StandardCharsets.UTF_8);
+                    buffer.putShort((short) 9);
+                    buffer.putInt(16).putLong(cause.getMostSignificantBits()).putLong(cause.getLeastSignificantBits());
+                    buffer.putInt(-1);
+                    buffer.putInt(2).putShort((short) 1);
+                    buffer.putInt(8).putLong(pos(i));
+                    buffer.putInt(8).putLong(chunk(i));
+                    buffer.putInt(4).putInt(1 + i % 900);
+                    buffer.putInt(action.length).put(action);
+                    buffer.putInt(-1);
+                    buffer.putInt(8).putLong((now + i) * 1000L - POSTGRES_EPOCH_MICROS);
+                }
+                buffer.putShort((short) -1);
+                var in = manager.copyIn("COPY bench_copy.blocks (cause_id, cause_raw, world, pos, chunk, block, action, nbt_hash, time) FROM STDIN (FORMAT binary);");
+                in.writeToCopy(buffer.array(), 0, buffer.position());
+                in.endCopy();
+                connection.commit();
+            }
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    static long pos(int i) {
+        int x = i % 4096 - 2048, y = i % 384 - 64, z = (i / 4096) % 4096 - 2048;
+        return ((x & 0x3FFFFFFL) << 38) | ((z & 0x3FFFFFFL) << 12) | (y & 0xFFFL);
+    }
+
+    static long chunk(int i) {
+        int x = i % 4096 - 2048, z = (i / 4096) % 4096 - 2048;
+        return ((x >> 4) & 0xFFFFFFFFL) | (((long) (z >> 4) & 0xFFFFFFFFL) << 32);
+    }
+}
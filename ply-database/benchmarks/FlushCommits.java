@@ -0,0 +1,120 @@
+// Compares how flushes of block rows are committed, and what bisecting a flush holding a bad row costs.
+// Run with `java -cp postgresql.jar FlushCommits.java jdbc:postgresql://localhost/scratch?user=postgres`.
+// Everything is made within the bench_flush schema, which is dropped on the next run.
+//
+// - autocommit: every row executed and committed by itself.
+// - batch: every flush batched as one transaction, as PlymouthSQL.flush does.
+// - rewritten: as batch, with reWriteBatchedInserts set on the connection as PlymouthPostgres does by default.
+// - bisect: as rewritten, with one row per flush failing a check, bisected the same as PlymouthSQL.flush with the
+//   default flushRetries of 2. The rows of that flush are otherwise lost entirely after three attempts.
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+public class FlushCommits {
+    static final int ROWS = 20_000, PER_FLUSH = 1000, ROUNDS = 3, RETRIES = 2;
+    static int commits, rollbacks;
+
+    public static void main(String[] args) throws Exception {
+        try (var connection = DriverManager.getConnection(args[0]);
+             var rewritten = DriverManager.getConnection(args[0] + (args[0].contains("?") ? "&" : "?") + "reWriteBatchedInserts=true")) {
+            try (var statement = connection.createStatement()) {
+                statement.execute("DROP SCHEMA IF EXISTS bench_flush CASCADE; CREATE SCHEMA bench_flush;");
+                statement.execute("CREATE TABLE bench_flush.blocks (cause_id uuid NOT NULL, world smallint, pos bigint, chunk bigint, block int CHECK (block > 0), time timestamp NOT NULL);");
+            }
+            for (int round = 0; round <= ROUNDS; round++) {
+                for (var mode : new String[]{"autocommit", "batch", "rewritten", "bisect"}) {
+                    var target = mode.equals("rewritten") || mode.equals("bisect") ? rewritten : connection;
+                    try (var statement = target.createStatement()) {
+                        statement.execute("TRUNCATE bench_flush.blocks;");
+                    }
+                    commits = rollbacks = 0;
+                    long time = System.nanoTime();
+                    int sent = run(target, mode);
+                    time = System.nanoTime() - time;
+                    // The first round only warms up.
+                    if (round != 0) {
+                        System.out.printf("%-10s round %d: %7.1f ms, %6.0f rows/s, %5d commits, %3d rollbacks, %5d rows sent%n",
+                                mode, round, time / 1e6, sent / (time / 1e9), commits, rollbacks, sent);
+                    }
+                }
+            }
+        }
+    }
+
+    static int run(Connection connection, String mode) throws SQLException {
+        var cause = UUID.randomUUID();
+        var time = new Timestamp(System.currentTimeMillis());
+        try (var insert = connection.prepareStatement("INSERT INTO bench_flush.blocks (cause_id, world, pos, chunk, block, time) VALUES (?, ?, ?, ?, ?, ?);")) {
+            if (mode.equals("autocommit")) {
+                for (int i = 0; i < ROWS; i++) {
+                    bind(insert, cause, time, i, false);
+                    insert.executeUpdate();
+                    commits++;
+                }
+                return ROWS;
+            }
+            connection.setAutoCommit(false);
+            int sent = 0;
+            try {
+                for (int from = 0; from < ROWS; from += PER_FLUSH) {
+                    // The bad row sits somewhere different within each flush.
+                    int bad = mode.equals("bisect") ? from + (from * 7 + 331) % PER_FLUSH : -1;
+                    int to = Math.min(ROWS, from + PER_FLUSH);
+                    if (commit(connection, insert, cause, time, from, to, bad)) sent += to - from;
+                    else sent += bisect(connection, insert, cause, time, from, to, bad);
+                }
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            return sent;
+        }
+    }
+
+    static int bisect(Connection connection, PreparedStatement insert, UUID cause, Timestamp time, int from, int to, int bad) throws SQLException {
+        if (to - from == 1) {
+            for (int attempt = 1; attempt <= RETRIES; attempt++) {
+                if (commit(connection, insert, cause, time, from, to, bad)) return 1;
+            }
+            return 0;
+        }
+        int mid = (from + to) >>> 1, sent = 0;
+        for (int[] half : new int[][]{{from, mid}, {mid, to}}) {
+            if (commit(connection, insert, cause, time, half[0], half[1], bad)) sent += half[1] - half[0];
+            else sent += bisect(connection, insert, cause, time, half[0], half[1], bad);
+        }
+        return sent;
+    }
+
+    static boolean commit(Connection connection, PreparedStatement insert, UUID cause, Timestamp time, int from, int to, int bad) throws SQLException {
+        for (int i = from; i < to; i++) {
+            bind(insert, cause, time, i, i == bad);
+            insert.addBatch();
+        }
+        try {
+            insert.executeBatch();
+            connection.commit();
+            commits++;
+            return true;
+        } catch (SQLException exception) {
+            insert.clearBatch();
+            connection.rollback();
+            rollbacks++;
+            return false;
+        }
+    }
+
+    static void bind(PreparedStatement insert, UUID cause, Timestamp time, int i, boolean bad) throws SQLException {
+        int x = i % 4096 - 2048, y = i % 384 - 64, z = i / 4096 - 2048;
+        insert.setObject(1, cause);
+        insert.setShort(2, (short) 1);
+        insert.setLong(3, ((x & 0x3FFFFFFL) << 38) | ((z & 0x3FFFFFFL) << 12) | (y & 0xFFFL));
+        insert.setLong(4, ((x >> 4) & 0xFFFFFFFFL) | (((long) (z >> 4) & 0xFFFFFFFFL) << 32));
+        insert.setInt(5, bad ? -1 : 1 + i % 900);
+        insert.setTimestamp(6, time);
+    }
+}
@@ -0,0 +1,179 @@
+// Compares the ways of sending NBT blobs, using the NBT of filled shulker boxes as the payload.
+// Run with `java -cp postgresql.jar NbtBlobBinding.java jdbc:postgresql://localhost/scratch?user=postgres`.
+// Everything is made within the bench_blobs schema, which is dropped on the next run.
+//
+// - stream: the batched insert binding a ByteArrayInputStream over the shared buffer, as NbtBlobs did before.
+// - bytes: the batched insert binding an exact copy of the payload with setBytes.
+// - copy: the binary COPY into nbt_staging drained into nbt_blobs, as NbtBlobs does now.
+//   Draining by DELETE ... RETURNING instead took 580 to 890 ms, growing each round as the staging table bloated.
+//
+// Allocations are of the calling thread alone, which covers the driver as it sends on the calling thread.
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+import org.postgresql.PGConnection;
+
+public class NbtBlobBinding {
+    static final int BLOBS = 20_000, PER_FLUSH = 500, ROUNDS = 5;
+    static final String[] ITEMS = {"minecraft:diamond_sword", "minecraft:netherite_pickaxe", "minecraft:enchanted_book", "minecraft:written_book", "minecraft:oak_log"};
+
+    public static void main(String[] args) throws Exception {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var payloads = new byte[BLOBS][];
+        var hashes = new UUID[BLOBS];
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        long raw = 0, deflated = 0;
+        for (int i = 0; i < BLOBS; i++) {
+            var nbt = shulkerBox(i);
+            raw += nbt.length;
+            payloads[i] = deflate(deflater, nbt);
+            deflated += payloads[i].length;
+            var digest = ByteBuffer.wrap(java.security.MessageDigest.getInstance("MD5").digest(nbt));
+            hashes[i] = new UUID(digest.getLong(), digest.getLong());
+        }
+        System.out.printf("%d blobs, %d bytes raw and %d bytes deflated on average%n", BLOBS, raw / BLOBS, deflated / BLOBS);
+
+        try (var connection = DriverManager.getConnection(args[0])) {
+            try (var statement = connection.createStatement()) {
+                statement.execute("DROP SCHEMA IF EXISTS bench_blobs CASCADE; CREATE SCHEMA bench_blobs; SET search_path = bench_blobs;");
+                statement.execute("CREATE TABLE nbt_blobs (hash uuid PRIMARY KEY, data bytea NOT NULL);");
+                statement.execute("CREATE TEMPORARY TABLE nbt_staging (hash uuid NOT NULL, data bytea NOT NULL) ON COMMIT DELETE ROWS;");
+            }
+            connection.setAutoCommit(false);
+            for (int round = 0; round <= ROUNDS; round++) {
+                for (var mode : new String[]{"stream", "bytes", "copy"}) {
+                    try (var statement = connection.createStatement()) {
+                        statement.execute("TRUNCATE nbt_blobs;");
+                    }
+                    connection.commit();
+                    long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()), time = System.nanoTime();
+                    run(connection, mode, payloads, hashes);
+                    time = System.nanoTime() - time;
+                    bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+                    // The first round only warms up.
+                    if (round != 0) System.out.printf("%-6s round %d: %6.1f ms, %5d bytes allocated per blob%n", mode, round, time / 1e6, bytes / BLOBS);
+                }
+            }
+        }
+    }
+
+    static void run(Connection connection, String mode, byte[][] payloads, UUID[] hashes) throws SQLException {
+        if (mode.equals("copy")) {
+            var copy = connection.unwrap(PGConnection.class).getCopyAPI();
+            var buffer = new byte[1 << 16];
+            try (var drain = connection.prepareStatement("INSERT INTO nbt_blobs (hash, data) SELECT hash, data FROM nbt_staging ON CONFLICT DO NOTHING;")) {
+                for (int i = 0; i < payloads.length; i += PER_FLUSH) {
+                    // Encoded the same as CopyEncoder, the payload being deflated in place there rather than copied.
+                    var out = ByteBuffer.wrap(buffer);
+                    out.put(new byte[]{'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0, 0, 0, 0, 0, 0, 0, 0, 0});
+                    for (int j = i, l = Math.min(payloads.length, i + PER_FLUSH); j < l; j++) {
+                        if (out.remaining() < payloads[j].length + 64) {
+                            buffer = Arrays.copyOf(buffer, buffer.length << 1);
+                            out = ByteBuffer.wrap(buffer).position(out.position());
+                        }
+                        out.putShort((short) 2).putInt(16).putLong(hashes[j].getMostSignificantBits()).putLong(hashes[j].getLeastSignificantBits());
+                        out.putInt(payloads[j].length).put(payloads[j]);
+                    }
+                    out.putShort((short) -1);
+                    var in = copy.copyIn("COPY nbt_staging (hash, data) FROM STDIN (FORMAT binary);");
+                    in.writeToCopy(buffer, 0, out.position());
+                    in.endCopy();
+                    drain.executeUpdate();
+                    connection.commit();
+                }
+            }
+            return;
+        }
+        try (var insert = connection.prepareStatement("INSERT INTO nbt_blobs (hash, data) VALUES (?, ?) ON CONFLICT DO NOTHING;")) {
+            for (int i = 0; i < payloads.length; i++) {
+                insert.setObject(1, hashes[i]);
+                var payload = payloads[i];
+                if (mode.equals("stream")) {
+                    insert.setBinaryStream(2, new ByteArrayInputStream(payload, 0, payload.length), payload.length);
+                } else {
+                    insert.setBytes(2, Arrays.copyOf(payload, payload.length));
+                }
+                insert.addBatch();
+                if ((i + 1) % PER_FLUSH == 0 || i + 1 == payloads.length) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+        }
+    }
+
+    static byte[] deflate(Deflater deflater, byte[] bytes) {
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        var out = new byte[bytes.length + 64];
+        int length = 0;
+        while (!deflater.finished()) length += deflater.deflate(out, length, out.length - length);
+        return Arrays.copyOf(out, length);
+    }
+
+    // A shulker box of 27 enchanted and named stacks in the format NbtIo writes, varied by the seed.
+    static byte[] shulkerBox(int seed) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeByte(10);
+        out.writeUTF("");
+        out.writeByte(8);
+        out.writeUTF("id");
+        out.writeUTF("minecraft:shulker_box");
+        out.writeByte(9);
+        out.writeUTF("Items");
+        out.writeByte(10);
+        out.writeInt(27);
+        for (int slot = 0; slot < 27; slot++) {
+            out.writeByte(1);
+            out.writeUTF("Slot");
+            out.writeByte(slot);
+            out.writeByte(8);
+            out.writeUTF("id");
+            out.writeUTF(ITEMS[(seed + slot) % ITEMS.length]);
+            out.writeByte(1);
+            out.writeUTF("Count");
+            out.writeByte(1 + (seed * 31 + slot) % 64);
+            out.writeByte(10);
+            out.writeUTF("tag");
+            out.writeByte(3);
+            out.writeUTF("Damage");
+            out.writeInt((seed * 7 + slot * 13) % 1561);
+            out.writeByte(10);
+            out.writeUTF("display");
+            out.writeByte(8);
+            out.writeUTF("Name");
+            out.writeUTF("{\"text\":\"Stack " + seed + '/' + slot + "\",\"italic\":false}");
+            out.writeByte(0);
+            out.writeByte(9);
+            out.writeUTF("Enchantments");
+            out.writeByte(10);
+            out.writeInt(2);
+            for (var enchantment : new String[]{"minecraft:unbreaking", "minecraft:mending"}) {
+                out.writeByte(8);
+                out.writeUTF("id");
+                out.writeUTF(enchantment);
+                out.writeByte(2);
+                out.writeUTF("lvl");
+                out.writeShort(1 + slot % 3);
+                out.writeByte(0);
+            }
+            out.writeByte(0);
+            out.writeByte(0);
+        }
+        out.writeByte(0);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,131 @@
+-- Compares area, cause and recent lookups of blocks before and after the lookup indices of schema 3 and 7.
+-- Run with `psql -f indexes.sql` against a scratch database. Everything is made within the bench_indexes schema.
+-- Rows are inserted in time order as the writer does, which is what lets BRIN on time skip over older ranges.
+
+DROP SCHEMA IF EXISTS bench_indexes CASCADE;
+CREATE SCHEMA bench_indexes;
+SET search_path = bench_indexes;
+
+CREATE TYPE ipos AS (x int, y int, z int, d int);
+CREATE TYPE block_action AS ENUM ('BREAK', 'PLACE', 'USE');
+
+-- 200 players, the first of which did a tenth of everything.
+CREATE TABLE players AS
+SELECT n, md5('player' || n)::uuid AS id
+FROM generate_series(0, 199) n;
+
+-- 2M rows around spawn over 30 days, mostly in the overworld.
+CREATE TABLE blocks
+(
+    cause_id  uuid      NOT NULL,
+    cause_raw uuid,
+    cause_pos ipos,
+    time      timestamp NOT NULL,
+    undone    boolean   NOT NULL DEFAULT false,
+    world     smallint  NOT NULL,
+    pos       bigint    NOT NULL,
+    chunk     bigint    NOT NULL,
+    block     int,
+    action    block_action,
+    nbt_hash  uuid
+);
+
+INSERT INTO blocks (cause_id, cause_pos, time, world, pos, chunk, block, action)
+SELECT (SELECT id FROM players WHERE n = CASE WHEN s.r < 0.1 THEN 0 ELSE 1 + floor(s.r * 1990)::int % 199 END),
+       (s.x, s.y, s.z, s.d)::ipos,
+       s.time,
+       s.d,
+       ((s.x::bigint & 67108863) << 38) | ((s.z::bigint & 67108863) << 12) | (s.y::bigint & 4095),
+       ((s.x >> 4)::bigint & 4294967295) | (((s.z >> 4)::bigint & 4294967295) << 32),
+       (floor(random() * 900) + 1)::int,
+       (enum_range(NULL::block_action))[floor(random() * 3) + 1]
+FROM (SELECT random()                                                                AS r,
+             (floor(random() * 4096) - 2048)::int                                    AS x,
+             (floor(random() * 384) - 64)::int                                       AS y,
+             (floor(random() * 4096) - 2048)::int                                    AS z,
+             (CASE WHEN random() < 0.8 THEN 1 WHEN random() < 0.5 THEN 2 ELSE 3 END) AS d,
+             now()::timestamp - interval '30 days' + g * interval '30 days' / 2000000 AS time
+      FROM generate_series(1, 2000000) g) s
+ORDER BY s.time;
+
+VACUUM ANALYZE blocks;
+
+-- Moved into this schema, as another script may have made it within its own.
+DROP EXTENSION IF EXISTS pg_prewarm;
+CREATE EXTENSION pg_prewarm SCHEMA bench_indexes;
+
+-- The same as PlymouthPostgres.chunkKeys.
+CREATE FUNCTION chunk_keys(min_x int, min_z int, max_x int, max_z int) RETURNS bigint[] AS $$
+SELECT array_agg((x::bigint & 4294967295) | ((z::bigint & 4294967295) << 32))
+FROM generate_series(min_x >> 4, max_x >> 4) x, generate_series(min_z >> 4, max_z >> 4) z
+$$ LANGUAGE SQL IMMUTABLE;
+
+-- The lookups as bound by PlymouthPostgres, paged by time as the first page is.
+PREPARE area(smallint, bigint[], bigint[], int, int, int, int, int, int, timestamp) AS
+SELECT * FROM blocks
+WHERE world = $1 AND (chunk = ANY ($2::bigint[]) OR $3::bigint[] IS NULL)
+  AND (pos >> 38) BETWEEN $4 AND $5 AND ((pos << 26) >> 38) BETWEEN $6 AND $7 AND ((pos << 52) >> 52) BETWEEN $8 AND $9
+  AND time > $10
+ORDER BY time DESC, ctid DESC LIMIT 8;
+
+PREPARE area_by(smallint, bigint[], bigint[], int, int, int, int, int, int, uuid) AS
+SELECT * FROM blocks
+WHERE world = $1 AND (chunk = ANY ($2::bigint[]) OR $3::bigint[] IS NULL)
+  AND (pos >> 38) BETWEEN $4 AND $5 AND ((pos << 26) >> 38) BETWEEN $6 AND $7 AND ((pos << 52) >> 52) BETWEEN $8 AND $9
+  AND cause_id = $10
+ORDER BY time DESC, ctid DESC LIMIT 8;
+
+PREPARE by(uuid, timestamp, timestamp) AS
+SELECT * FROM blocks
+WHERE cause_id = $1 AND time > $2 AND time < $3
+ORDER BY time DESC, ctid DESC LIMIT 8;
+
+PREPARE recent(timestamp) AS
+SELECT * FROM blocks
+WHERE time > $1
+ORDER BY time DESC, ctid DESC LIMIT 8;
+
+SELECT pg_prewarm('blocks');
+
+\echo '== Before: area of 65 by 65 blocks at full height, within the last week'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+EXECUTE area(1, chunk_keys(-32, -32, 32, 32), chunk_keys(-32, -32, 32, 32), -32, 32, -32, 32, -64, 319, now()::timestamp - interval '7 days');
+
+\echo '== Before: area of 65 by 65 blocks at full height, by a player with a two-hundredth of the rows'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+EXECUTE area_by(1, chunk_keys(-32, -32, 32, 32), chunk_keys(-32, -32, 32, 32), -32, 32, -32, 32, -64, 319, md5('player42')::uuid);
+
+\echo '== Before: by a player with a two-hundredth of the rows, a day from a week ago'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+EXECUTE by(md5('player42')::uuid, now()::timestamp - interval '8 days', now()::timestamp - interval '7 days');
+
+\echo '== Before: anything within the last hour'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+EXECUTE recent(now()::timestamp - interval '1 hour');
+
+-- The indices of schema 3 and 7, as built by PlymouthPostgres.createLookupIndexes and createChunkIndexes.
+CREATE INDEX blocks_time ON blocks USING brin (time);
+CREATE INDEX blocks_cause ON blocks (cause_id);
+CREATE INDEX blocks_chunk ON blocks (world, chunk, pos);
+ANALYZE blocks;
+SELECT pg_prewarm('blocks_time'), pg_prewarm('blocks_cause'), pg_prewarm('blocks_chunk');
+
+\echo '== Sizes: table, time, cause and chunk indices'
+SELECT pg_size_pretty(pg_relation_size('blocks')), pg_size_pretty(pg_relation_size('blocks_time')),
+       pg_size_pretty(pg_relation_size('blocks_cause')), pg_size_pretty(pg_relation_size('blocks_chunk'));
+
+\echo '== After: area of 65 by 65 blocks at full height, within the last week'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+EXECUTE area(1, chunk_keys(-32, -32, 32, 32), chunk_keys(-32, -32, 32, 32), -32, 32, -32, 32, -64, 319, now()::timestamp - interval '7 days');
+
+\echo '== After: area of 65 by 65 blocks at full height, by a player with a two-hundredth of the rows'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+EXECUTE area_by(1, chunk_keys(-32, -32, 32, 32), chunk_keys(-32, -32, 32, 32), -32, 32, -32, 32, -64, 319, md5('player42')::uuid);
+
+\echo '== After: by a player with a two-hundredth of the rows, a day from a week ago'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+EXECUTE by(md5('player42')::uuid, now()::timestamp - interval '8 days', now()::timestamp - interval '7 days');
+
+\echo '== After: anything within the last hour'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+EXECUTE recent(now()::timestamp - interval '1 hour');
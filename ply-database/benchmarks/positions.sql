@@ -0,0 +1,133 @@
+-- Compares ipos target positions against the packed world, pos and chunk columns of schema 6 and 7.
+-- Run with `psql -f positions.sql` against a scratch database. Everything is made within the bench_positions schema.
+-- Both tables hold the same rows with the same mutation columns, differing only by how the position is stored.
+
+DROP SCHEMA IF EXISTS bench_positions CASCADE;
+CREATE SCHEMA bench_positions;
+SET search_path = bench_positions;
+
+CREATE TYPE ipos AS (x int, y int, z int, d int);
+CREATE TYPE block_action AS ENUM ('BREAK', 'PLACE', 'USE');
+
+-- 2M rows around spawn, mostly in the overworld, over 30 days.
+CREATE TABLE seed AS
+SELECT gen_random_uuid()                                                       AS cause_id,
+       (floor(random() * 4096) - 2048)::int                                    AS x,
+       (floor(random() * 384) - 64)::int                                       AS y,
+       (floor(random() * 4096) - 2048)::int                                    AS z,
+       (CASE WHEN random() < 0.8 THEN 1 WHEN random() < 0.5 THEN 2 ELSE 3 END) AS d,
+       (floor(random() * 900) + 1)::int                                        AS block,
+       (enum_range(NULL::block_action))[floor(random() * 3) + 1]               AS action,
+       now()::timestamp - random() * interval '30 days'                        AS time
+FROM generate_series(1, 2000000);
+
+CREATE TABLE blocks_ipos
+(
+    cause_id   uuid      NOT NULL,
+    cause_raw  uuid,
+    cause_pos  ipos,
+    time       timestamp NOT NULL,
+    undone     boolean   NOT NULL DEFAULT false,
+    target_pos ipos      NOT NULL,
+    block      int,
+    action     block_action,
+    nbt_hash   bytea
+);
+
+CREATE TABLE blocks_packed
+(
+    cause_id  uuid      NOT NULL,
+    cause_raw uuid,
+    cause_pos ipos,
+    time      timestamp NOT NULL,
+    undone    boolean   NOT NULL DEFAULT false,
+    world     smallint  NOT NULL,
+    pos       bigint    NOT NULL,
+    chunk     bigint    NOT NULL,
+    block     int,
+    action    block_action,
+    nbt_hash  bytea
+);
+
+INSERT INTO blocks_ipos (cause_id, cause_pos, time, target_pos, block, action)
+SELECT cause_id, (x, y, z, d)::ipos, time, (x, y, z, d)::ipos, block, action
+FROM seed;
+
+-- Packed the same as BlockPos.asLong and ChunkPos.toLong.
+INSERT INTO blocks_packed (cause_id, cause_pos, time, world, pos, chunk, block, action)
+SELECT cause_id,
+       (x, y, z, d)::ipos,
+       time,
+       d,
+       ((x::bigint & 67108863) << 38) | ((z::bigint & 67108863) << 12) | (y::bigint & 4095),
+       ((x >> 4)::bigint & 4294967295) | (((z >> 4)::bigint & 4294967295) << 32),
+       block,
+       action
+FROM seed;
+
+-- The indices of schema 3 and schema 7 respectively.
+CREATE INDEX blocks_ipos_pos ON blocks_ipos (((target_pos).d), ((target_pos).x), ((target_pos).z), ((target_pos).y));
+CREATE INDEX blocks_packed_chunk ON blocks_packed (world, chunk, pos);
+VACUUM ANALYZE blocks_ipos;
+VACUUM ANALYZE blocks_packed;
+
+-- Every lookup is measured warm.
+-- Moved into this schema, as another script may have made it within its own.
+DROP EXTENSION IF EXISTS pg_prewarm;
+CREATE EXTENSION pg_prewarm SCHEMA bench_positions;
+SELECT pg_prewarm('blocks_ipos'), pg_prewarm('blocks_ipos_pos'), pg_prewarm('blocks_packed'), pg_prewarm('blocks_packed_chunk');
+
+-- The same as PlymouthPostgres.chunkKeys.
+CREATE FUNCTION chunk_keys(min_x int, min_z int, max_x int, max_z int) RETURNS bigint[] AS $$
+SELECT array_agg((x::bigint & 4294967295) | ((z::bigint & 4294967295) << 32))
+FROM generate_series(min_x >> 4, max_x >> 4) x, generate_series(min_z >> 4, max_z >> 4) z
+$$ LANGUAGE SQL IMMUTABLE;
+
+-- The area query as bound by PlymouthPostgres, the chunk keys being null past PlymouthPostgres.MAX_CHUNK_KEYS.
+PREPARE area(smallint, bigint[], bigint[], int, int, int, int, int, int) AS
+SELECT * FROM blocks_packed
+WHERE world = $1 AND (chunk = ANY ($2::bigint[]) OR $3::bigint[] IS NULL)
+  AND (pos >> 38) BETWEEN $4 AND $5 AND ((pos << 26) >> 38) BETWEEN $6 AND $7 AND ((pos << 52) >> 52) BETWEEN $8 AND $9
+ORDER BY time DESC LIMIT 8;
+
+\echo '== Sizes: table, index, average row'
+SELECT 'ipos', pg_size_pretty(pg_relation_size('blocks_ipos')), pg_size_pretty(pg_relation_size('blocks_ipos_pos')),
+       (SELECT avg(pg_column_size(t.*))::numeric(6, 1) FROM blocks_ipos t)
+UNION ALL
+SELECT 'packed', pg_size_pretty(pg_relation_size('blocks_packed')), pg_size_pretty(pg_relation_size('blocks_packed_chunk')),
+       (SELECT avg(pg_column_size(t.*))::numeric(6, 1) FROM blocks_packed t);
+
+\echo '== Point lookup, ipos'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+SELECT * FROM blocks_ipos
+WHERE (target_pos).d = 1 AND (target_pos).x = 100 AND (target_pos).z = -200 AND (target_pos).y = 64
+ORDER BY time DESC LIMIT 8;
+
+\echo '== Point lookup, packed'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+SELECT * FROM blocks_packed
+WHERE world = 1 AND chunk = ((100 >> 4)::bigint & 4294967295) | (((-200 >> 4)::bigint & 4294967295) << 32)
+  AND pos = ((100::bigint & 67108863) << 38) | ((-200::bigint & 67108863) << 12) | (64::bigint & 4095)
+ORDER BY time DESC LIMIT 8;
+
+\echo '== Area lookup of 65 by 65 blocks at full height, ipos'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+SELECT * FROM blocks_ipos
+WHERE (target_pos).d = 1 AND (target_pos).x BETWEEN -32 AND 32 AND (target_pos).z BETWEEN -32 AND 32
+  AND (target_pos).y BETWEEN -64 AND 319
+ORDER BY time DESC LIMIT 8;
+
+\echo '== Area lookup of 65 by 65 blocks at full height, packed by chunk keys'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+EXECUTE area(1, chunk_keys(-32, -32, 32, 32), chunk_keys(-32, -32, 32, 32), -32, 32, -32, 32, -64, 319);
+
+\echo '== Area lookup of 1024 by 1024 blocks, over the chunk key limit, ipos'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+SELECT * FROM blocks_ipos
+WHERE (target_pos).d = 1 AND (target_pos).x BETWEEN -512 AND 511 AND (target_pos).z BETWEEN -512 AND 511
+  AND (target_pos).y BETWEEN -64 AND 319
+ORDER BY time DESC LIMIT 8;
+
+\echo '== Area lookup of 1024 by 1024 blocks, over the chunk key limit, packed by position alone'
+EXPLAIN (ANALYZE, BUFFERS, COSTS OFF)
+EXECUTE area(1, NULL, NULL, -512, 511, -512, 511, -64, 319);
@@ -37,6 +37,7 @@ dependencies {
     api(project(":ply-common"))
     api(project(":utilities")) { include(this) }
     include(implementation("org.postgresql", "postgresql", postgres_version))
+    modImplementation(fabricApi.module("fabric-lifecycle-events-v1", fabric_api_version))
     modRuntime(fabricApi.module("fabric-resource-loader-v0", fabric_api_version))
 }
 
@@ -0,0 +1,154 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T16:02:47
+
+import net.kjp12.plymouth.database.records.BlockRecord;
+import net.minecraft.server.world.ServerWorld;
+
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Holds block records for a short window by world, position and cause, collapsing breaks and places
+ * that cancel or supersede one another into the net change, similar to how inventory deltas are accumulated.
+ * <p>
+ * A run keeps the first break, being the state before, and the last place, being the state after.
+ * Placing then breaking within the window leaves nothing behind, as does breaking then placing back the same state
+ * when there was no block entity. Anything that doesn't follow on from the run, such as breaking twice in a row
+ * due to something else changing the block, releases the run early and starts a new one.
+ * <p>
+ * Uses aren't held, nor are records already undone. Held records are only journaled once released.
+ * Must only be used from {@link DatabaseHelper#SERVICE}.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class BlockCoalescer {
+    private final long window;
+    // Runs are only ever appended with the same window, so the head is always the first to expire.
+    private final LinkedHashMap<Key, Run> runs = new LinkedHashMap<>();
+    private long coalesced;
+
+    /**
+     * @param window How long to hold a run for in nanoseconds, from its first record.
+     */
+    BlockCoalescer(long window) {
+        this.window = window;
+    }
+
+    /**
+     * Adds the record to its run, releasing the run early if the record doesn't follow on from it.
+     *
+     * @param record  The record to hold.
+     * @param release The consumer to pass released records to.
+     */
+    void add(BlockRecord record, Consumer<BlockRecord> release) {
+        if (record.isUndone || record.action == BlockAction.USE) {
+            release.accept(record);
+            return;
+        }
+        var key = new Key(record.targetWorld, record.targetPos.asLong(), record.userId, record.entityId);
+        var run = runs.get(key);
+        if (run != null) {
+            if (run.accept(record)) return;
+            runs.remove(key);
+            release(run, release);
+        }
+        runs.put(key, new Run(record, System.nanoTime() + window));
+    }
+
+    /**
+     * Releases the net change of every run past its window.
+     *
+     * @param now     The current {@link System#nanoTime()}.
+     * @param release The consumer to pass released records to.
+     * @return The amount of records released.
+     */
+    int release(long now, Consumer<BlockRecord> release) {
+        int released = 0;
+        for (var iterator = runs.values().iterator(); iterator.hasNext(); ) {
+            var run = iterator.next();
+            if (now - run.deadline < 0) break;
+            iterator.remove();
+            released += release(run, release);
+        }
+        return released;
+    }
+
+    /**
+     * @param now The current {@link System#nanoTime()}.
+     * @return The nanoseconds until the next run is to be released, or {@link Long#MAX_VALUE} if none are held.
+     */
+    long nextDelay(long now) {
+        if (runs.isEmpty()) return Long.MAX_VALUE;
+        return Math.max(runs.values().iterator().next().deadline - now, 0L);
+    }
+
+    /**
+     * @return The amount of records collapsed away so far.
+     */
+    long getCoalesced() {
+        return coalesced;
+    }
+
+    private int release(Run run, Consumer<BlockRecord> release) {
+        var before = run.before;
+        var after = run.after;
+        int released = 0;
+        // Broken then placed back as it was; the NBT of a block entity would be lost otherwise.
+        if (before != null && after != null && before.block == after.block && before.nbt == null) {
+            before = after = null;
+        }
+        if (before != null) {
+            release.accept(before);
+            released++;
+        }
+        if (after != null) {
+            release.accept(after);
+            released++;
+        }
+        coalesced += run.records - released;
+        return released;
+    }
+
+    private static final class Run {
+        private final BlockRecord before;
+        private final long deadline;
+        private BlockRecord after;
+        private int records = 1;
+
+        private Run(BlockRecord first, long deadline) {
+            this.deadline = deadline;
+            if (first.action == BlockAction.BREAK) {
+                this.before = first;
+            } else {
+                this.before = null;
+                this.after = first;
+            }
+        }
+
+        /**
+         * @return true if the record follows on from the run and was taken in.
+         */
+        private boolean accept(BlockRecord record) {
+            switch (record.action) {
+                case BREAK -> {
+                    // Only what was last placed by this cause can be broken as part of the run.
+                    if (after == null || after.block != record.block) return false;
+                    after = null;
+                }
+                case PLACE -> {
+                    if (after != null) return false;
+                    after = record;
+                }
+                default -> {
+                    return false;
+                }
+            }
+            records++;
+            return true;
+        }
+    }
+
+    private record Key(ServerWorld world, long pos, UUID userId, UUID entityId) {
+    }
+}
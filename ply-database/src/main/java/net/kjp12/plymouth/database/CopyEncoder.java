@@ -0,0 +1,301 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T09:12:40
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.math.Vec3i;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+/**
+ * Reusable encoder for PostgreSQL's binary <code>COPY</code> format.
+ * <p>
+ * Rows are written straight into a growable buffer that is handed off to the
+ * {@link CopyManager} in one go on {@link #flush(CopyManager)}, after which the buffer is reused.
+ * <p>
+ * The composite type <code>dpos</code> is written in the binary
+ * record format, which is the field count followed by the OID, length and value of each field.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class CopyEncoder {
+    private static final byte[] HEADER = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0, /* flags */ 0, 0, 0, 0, /* extension */ 0, 0, 0, 0};
+    private static final int OID_INT4 = 23, OID_FLOAT8 = 701;
+    // 2000-01-01T00:00:00Z in microseconds from the Unix epoch, which is what binary timestamps are relative to.
+    private static final long POSTGRES_EPOCH_MICROS = 946_684_800_000_000L;
+
+    final String sql;
+    private final DataOutputStream nbtOutput = new DataOutputStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+            ensure(1);
+            buffer[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buffer, length, len);
+            length += len;
+        }
+    });
+    private byte[] buffer = new byte[8192];
+    private int length, rowStart, rows;
+
+    /**
+     * @param sql The <code>COPY ... FROM STDIN (FORMAT binary)</code> statement this encoder is for.
+     */
+    CopyEncoder(String sql) {
+        this.sql = sql;
+        reset();
+    }
+
+    /**
+     * @return The amount of rows currently buffered.
+     */
+    int rows() {
+        return rows;
+    }
+
+    /**
+     * Starts a new row. Every field of the row must be written afterwards.
+     *
+     * @param fields The amount of fields in the row.
+     */
+    CopyEncoder row(int fields) {
+        rowStart = length;
+        rows++;
+        putShort(fields);
+        return this;
+    }
+
+    /**
+     * Discards the row currently being written, used when a row fails midway.
+     */
+    void abortRow() {
+        if (length != rowStart) {
+            length = rowStart;
+            rows--;
+        }
+    }
+
+    CopyEncoder writeNull() {
+        putInt(-1);
+        return this;
+    }
+
+    CopyEncoder writeInt(int value) {
+        putInt(4);
+        putInt(value);
+        return this;
+    }
+
+    CopyEncoder writeUuid(UUID uuid) {
+        if (uuid == null) return writeNull();
+        putInt(16);
+        putLong(uuid.getMostSignificantBits());
+        putLong(uuid.getLeastSignificantBits());
+        return this;
+    }
+
+    CopyEncoder writeText(String text) {
+        if (text == null) return writeNull();
+        var bytes = text.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        putBytes(bytes, 0, bytes.length);
+        return this;
+    }
+
+    /**
+     * Writes the timestamp as a <code>timestamp</code> at UTC.
+     */
+    CopyEncoder writeTimestamp(Instant time) {
+        putInt(8);
+        putLong(time.getEpochSecond() * 1_000_000L + time.getNano() / 1000 - POSTGRES_EPOCH_MICROS);
+        return this;
+    }
+
+    /**
+     * Writes the NBT directly into the buffer as <code>bytea</code>, with no intermediary copies.
+     *
+     * @throws PlymouthException If the NBT could not be written. The row will have been aborted.
+     */
+    CopyEncoder writeNbt(NbtCompound nbt) throws PlymouthException {
+        if (nbt == null) return writeNull();
+        var lengthAt = length;
+        putInt(0);
+        try {
+            NbtIo.write(nbt, nbtOutput);
+        } catch (IOException ioe) {
+            abortRow();
+            throw new PlymouthException(ioe, nbt);
+        }
+        var end = length;
+        length = lengthAt;
+        putInt(end - lengthAt - 4);
+        length = end;
+        return this;
+    }
+
+    /**
+     * Deflates a range of the array directly into the buffer as <code>bytea</code>, with no intermediary copies.
+     *
+     * @param deflater The deflater to use, reset beforehand.
+     * @param bytes    The array to deflate from.
+     * @param offset   The start of the range to deflate.
+     * @param len      The length of the range to deflate.
+     */
+    CopyEncoder writeDeflated(Deflater deflater, byte[] bytes, int offset, int len) {
+        var lengthAt = length;
+        putInt(0);
+        deflater.reset();
+        deflater.setInput(bytes, offset, len);
+        deflater.finish();
+        while (!deflater.finished()) {
+            ensure(Math.max(64, len >> 1));
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        var end = length;
+        length = lengthAt;
+        putInt(end - lengthAt - 4);
+        length = end;
+        return this;
+    }
+
+    /**
+     * Writes the world as <code>smallint</code> followed by the position and its chunk packed as <code>bigint</code>,
+     * taking up three fields.
+     *
+     * @param pos   The position, defaulting to {@link Vec3i#ZERO} if null.
+     * @param world The world index, or null if the world is unknown.
+     */
+    CopyEncoder writePackedPos(Vec3i pos, Integer world) {
+        if (pos == null) pos = Vec3i.ZERO;
+        if (world == null) {
+            writeNull();
+        } else {
+            putInt(2);
+            putShort(world);
+        }
+        putInt(8);
+        putLong(BlockPos.asLong(pos.getX(), pos.getY(), pos.getZ()));
+        putInt(8);
+        putLong(ChunkPos.toLong(pos.getX() >> 4, pos.getZ() >> 4));
+        return this;
+    }
+
+    /**
+     * Writes a <code>dpos</code> composite.
+     *
+     * @param pos   The position, defaulting to {@link Vec3d#ZERO} if null.
+     * @param world The world index, or null if the world is unknown.
+     */
+    CopyEncoder writeDpos(Vec3d pos, Integer world) {
+        if (pos == null) pos = Vec3d.ZERO;
+        // Back-patched, as the world field is shorter when null.
+        var lengthAt = length;
+        putInt(0);
+        putInt(4);
+        putDoubleField(pos.x);
+        putDoubleField(pos.y);
+        putDoubleField(pos.z);
+        putWorldField(world);
+        var end = length;
+        length = lengthAt;
+        putInt(end - lengthAt - 4);
+        length = end;
+        return this;
+    }
+
+    /**
+     * Streams all buffered rows through the copy manager, then resets the buffer for reuse.
+     *
+     * @param manager The copy manager of the connection to stream to.
+     * @return The amount of rows the server has acknowledged.
+     * @throws SQLException If the server rejected the copy. The buffered rows are discarded regardless.
+     */
+    long flush(CopyManager manager) throws SQLException {
+        if (rows == 0) return 0;
+        putShort(-1);
+        CopyIn copy = manager.copyIn(sql);
+        try {
+            copy.writeToCopy(buffer, 0, length);
+            return copy.endCopy();
+        } finally {
+            if (copy.isActive()) copy.cancelCopy();
+            reset();
+        }
+    }
+
+    /**
+     * Discards all buffered rows without sending them.
+     */
+    void discard() {
+        reset();
+    }
+
+    private void reset() {
+        length = rowStart = rows = 0;
+        putBytes(HEADER, 0, HEADER.length);
+    }
+
+    private void putDoubleField(double value) {
+        putInt(OID_FLOAT8);
+        putInt(8);
+        putLong(Double.doubleToLongBits(value));
+    }
+
+    private void putWorldField(Integer world) {
+        putInt(OID_INT4);
+        if (world == null) {
+            putInt(-1);
+        } else {
+            putInt(4);
+            putInt(world);
+        }
+    }
+
+    private void putShort(int value) {
+        ensure(2);
+        buffer[length++] = (byte) (value >>> 8);
+        buffer[length++] = (byte) value;
+    }
+
+    private void putInt(int value) {
+        ensure(4);
+        buffer[length++] = (byte) (value >>> 24);
+        buffer[length++] = (byte) (value >>> 16);
+        buffer[length++] = (byte) (value >>> 8);
+        buffer[length++] = (byte) value;
+    }
+
+    private void putLong(long value) {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+    }
+
+    private void putBytes(byte[] bytes, int offset, int len) {
+        ensure(len);
+        System.arraycopy(bytes, offset, buffer, length, len);
+        length += len;
+    }
+
+    private void ensure(int amount) {
+        if (length + amount > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, length + amount));
+        }
+    }
+}
@@ -1,18 +1,22 @@
 package net.kjp12.plymouth.database;
 
 import com.google.gson.Gson;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.kjp12.plymouth.common.UUIDHelper;
 import net.minecraft.block.AbstractFireBlock;
 import net.minecraft.block.BlockState;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.damage.DamageSource;
 import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.state.property.Properties;
 import net.minecraft.state.property.Property;
 import net.minecraft.text.Text;
 import net.minecraft.text.TranslatableText;
 import net.minecraft.util.Formatting;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.math.Vec3i;
 import net.minecraft.util.registry.Registry;
@@ -27,11 +31,14 @@ import java.nio.file.Path;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.time.ZoneOffset;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 /**
@@ -42,6 +49,7 @@ import java.util.function.Function;
  */
 public final class DatabaseHelper {
     public static final Path config = Path.of(".", "config");
+    public static final Path data = Path.of(".", "plymouth");
     public static final Logger LOGGER = LogManager.getLogger("Plymouth: Database");
     public static final int PAGE_SIZE = 8;
 
@@ -49,7 +57,16 @@ public final class DatabaseHelper {
     final static Gson GSON = new Gson();
     final static ScheduledExecutorService SERVICE = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "Akka"));
 
-    public static Plymouth database;
+    // Volatile as a failed bootstrap replaces it from the service thread.
+    public static volatile Plymouth database;
+    private static boolean closeOnError;
+    // Set once the server starts. A stop requested beforehand is held until then.
+    private static volatile MinecraftServer server;
+    private static volatile boolean stopRequested;
+
+    // Only one flush is ever scheduled at a time, replaced each time a flush runs.
+    private static volatile ScheduledFuture<?> nextFlush;
+    private static final AtomicBoolean flushRequested = new AtomicBoolean();
 
     public static final Text tookText = new TranslatableText("plymouth.tracker.action.took").formatted(Formatting.RED);
 
@@ -83,6 +100,31 @@ public final class DatabaseHelper {
                         properties.put("user", "username");
                         properties.put("password", "password");
                         properties.put("closeOnError", "true");
+                        properties.put("copyIngest", "false");
+                        properties.put("queueCapacity", "65536");
+                        properties.put("queueOverflow", "spill");
+                        properties.put("readerConnections", "2");
+                        properties.put("statementCacheSize", "32");
+                        properties.put("lookupCacheSize", "256");
+                        properties.put("lookupCacheMillis", "5000");
+                        properties.put("prefetchChunks", "256");
+                        properties.put("prefetchRadius", "2");
+                        properties.put("prefetchRecords", "4096");
+                        properties.put("flushRecords", "4096");
+                        properties.put("flushBytes", "1048576");
+                        properties.put("flushRetries", "2");
+                        properties.put("maxStalenessBlock", "1000");
+                        properties.put("maxStalenessDeath", "1000");
+                        properties.put("maxStalenessInventory", "10000");
+                        properties.put("coalesceMillis", "0");
+                        properties.put("nbtBlobCache", "65536");
+                        properties.put("journal", "true");
+                        properties.put("reconnectMinMillis", "1000");
+                        properties.put("reconnectMaxMillis", "60000");
+                        properties.put("healthCheckMillis", "30000");
+                        properties.put("migrationChunkPages", "1024");
+                        properties.put("partitionInterval", "week");
+                        properties.put("retentionDays", "0");
                         properties.store(os, "Please fill out these properties to your needs. Supported JDBC drivers: PostgreSQL");
                     }
                     LOGGER.warn("Plymouth wasn't present, using NoOP.");
@@ -93,10 +135,10 @@ public final class DatabaseHelper {
             try (var is = Files.newInputStream(props)) {
                 properties.load(is);
             }
-            shouldError = Boolean.parseBoolean(properties.getProperty("closeOnError"));
+            closeOnError = shouldError = Boolean.parseBoolean(properties.getProperty("closeOnError"));
             var url = Objects.requireNonNullElseGet(properties.getProperty("url"), () -> properties.getProperty("helium$url"));
+            // Connecting and migrating is left to the bootstrap, records are queued until then.
             database = url.startsWith("jdbc:postgresql:") ? new PlymouthPostgres(url, properties) : new PlymouthNoOP();
-            database.initializeDatabase();
         } catch (NoClassDefFoundError | PlymouthException | IOException ncdfe) {
             if (shouldError) throw new RuntimeException("Cannot load Plymouth Driver Wrapper, exiting…", ncdfe);
             assert false : ncdfe;
@@ -105,8 +147,87 @@ public final class DatabaseHelper {
         }
         Objects.requireNonNull(database);
         if (!(database instanceof PlymouthNoOP)) {
-            SERVICE.scheduleAtFixedRate(database::sendBatches, 1000, 100, TimeUnit.MILLISECONDS);
+            // The flush scheduled after will only run once the bootstrap finishes, as there is only the one thread.
+            SERVICE.execute(DatabaseHelper::bootstrap);
+            nextFlush = SERVICE.schedule(DatabaseHelper::flush, 1000, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Initializes the database off of the main thread, so that the server may start while the connection is opened
+     * and the schema is migrated. Records are buffered by the driver until it's ready.
+     * <p>
+     * Should the database be unreachable, the driver may hold on to records while retrying in the background.
+     * Any other failure is left to {@link #bootstrapFailed(Throwable)}.
+     */
+    private static void bootstrap() {
+        long start = System.nanoTime();
+        LOGGER.info("Initializing the database in the background, records will be buffered until it's ready.");
+        try {
+            database.initializeDatabase();
+            LOGGER.info("Initialized the database in {}ms.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (PlymouthException exception) {
+            if (!exception.requiresIntervention() && exception.isConnectionFailure() && database.initializeLater(exception)) {
+                LOGGER.error("Cannot reach the database, holding on to records while retrying in the background.", exception);
+            } else {
+                bootstrapFailed(exception);
+            }
+        } catch (RuntimeException | LinkageError exception) {
+            bootstrapFailed(exception);
+        }
+    }
+
+    /**
+     * Handles the database failing to initialize for any reason other than being unreachable.
+     * The server is stopped if <code>closeOnError</code> is set or the failure
+     * {@link PlymouthException#requiresIntervention() requires intervention}, otherwise NoOP is used from then on,
+     * discarding anything that was buffered. Must only be called from {@link #SERVICE}.
+     *
+     * @param exception The failure.
+     */
+    static void bootstrapFailed(Throwable exception) {
+        if (exception instanceof PlymouthException plymouth && plymouth.requiresIntervention()) {
+            LOGGER.fatal("Database migration failed and requires intervention, stopping the server.", exception);
+        } else if (closeOnError) {
+            LOGGER.fatal("Cannot load Plymouth Driver Wrapper, stopping the server.", exception);
+        } else {
+            LOGGER.error("Cannot load Plymouth Driver Wrapper, using NoOP.", exception);
+            database = new PlymouthNoOP();
+            return;
+        }
+        // Records logged while the server shuts down are discarded rather than buffered indefinitely.
+        database = new PlymouthNoOP();
+        stopServer();
+    }
+
+    /**
+     * Stops the server through its own shutdown, so that the worlds are saved, or as soon as it starts if it hasn't yet.
+     * May be called from any thread.
+     */
+    private static void stopServer() {
+        stopRequested = true;
+        var server = DatabaseHelper.server;
+        if (server != null) server.stop(false);
+    }
+
+    /**
+     * Requests that {@link Plymouth#sendBatches()} be called as soon as possible rather than when next scheduled.
+     * May be called from any thread.
+     */
+    static void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) SERVICE.execute(DatabaseHelper::flush);
+    }
+
+    private static void flush() {
+        flushRequested.set(false);
+        var scheduled = nextFlush;
+        if (scheduled != null) scheduled.cancel(false);
+        try {
+            database.sendBatches();
+        } catch (RuntimeException exception) {
+            LOGGER.error("Failed to send batches.", exception);
         }
+        nextFlush = SERVICE.schedule(DatabaseHelper::flush, database.nextFlushDelay(), TimeUnit.NANOSECONDS);
     }
 
     /**
@@ -180,7 +301,13 @@ public final class DatabaseHelper {
     }
 
     public static void init() {
-        // no-op, most of the init is in static.
+        // Most of the init is in static.
+        ServerLifecycleEvents.SERVER_STARTING.register(server -> {
+            DatabaseHelper.server = server;
+            // The bootstrap may have failed before the server was around to stop.
+            if (stopRequested) server.stop(false);
+        });
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> DatabaseHelper.server = null);
     }
 
     public static void log(ResultSet resultSet, int index) throws SQLException {
@@ -204,6 +331,28 @@ public final class DatabaseHelper {
         return offset;
     }
 
+    /**
+     * Adds a world, a Vec3i packed as {@link BlockPos#asLong(int, int, int)} and its chunk packed as
+     * {@link ChunkPos#toLong(int, int)} to a prepared statement offset by i.
+     *
+     * @param statement The statement to add the world and position to.
+     * @param offset    The offset to add the world and position to.
+     * @param world     The world index, or null if the world is unknown.
+     * @param pos       The Vec3i to pack into the statement.
+     * @return offset + 3
+     */
+    public static int addPackedPos(PreparedStatement statement, int offset, Integer world, Vec3i pos) throws SQLException {
+        if (pos == null) pos = Vec3i.ZERO;
+        if (world == null) {
+            statement.setNull(offset++, Types.SMALLINT);
+        } else {
+            statement.setShort(offset++, world.shortValue());
+        }
+        statement.setLong(offset++, BlockPos.asLong(pos.getX(), pos.getY(), pos.getZ()));
+        statement.setLong(offset++, ChunkPos.toLong(pos.getX() >> 4, pos.getZ() >> 4));
+        return offset;
+    }
+
     /**
      * Adds a Vec3d to a prepared statement offset by i.
      *
@@ -0,0 +1,113 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T19:41:08
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+
+import java.util.HashMap;
+
+/**
+ * Positions with records queued that lookups may not see yet, held until the flush that drains the record commits.
+ * <p>
+ * Anything caching lookup results locally synchronises on this while checking or marking positions,
+ * so that nothing is cached without a record queued in the meantime.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class DirtyPositions {
+    private final int limit;
+    // By the drain that was next when queued.
+    private final HashMap<Position, Long> positions = new HashMap<>();
+    private long drains, cleanups;
+    // Set when too many positions were dirty to track; everything is dirty until the drain after it commits.
+    private long overflow = -1L;
+
+    /**
+     * @param limit The amount of positions to track before treating everything as dirty.
+     */
+    DirtyPositions(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Marks the position as dirty. Must be synchronised on this.
+     *
+     * @param world The world of the position, may be null.
+     * @param pos   The position, may be null.
+     * @return The position marked, or null if there's no position.
+     */
+    Position mark(World world, BlockPos pos) {
+        if (world == null || pos == null) return null;
+        var position = new Position(world, pos.asLong());
+        if (overflow >= 0L) return position;
+        positions.put(position, drains);
+        if (positions.size() > limit) {
+            // Likely offline with the journal growing; tracking every position isn't worth it.
+            positions.clear();
+            overflow = drains;
+        }
+        return position;
+    }
+
+    /**
+     * Must be synchronised on this.
+     *
+     * @return true if the position has records queued that lookups may not see yet.
+     */
+    boolean isDirty(Position position) {
+        return overflow >= 0L || positions.containsKey(position);
+    }
+
+    /**
+     * Must be synchronised on this.
+     *
+     * @return The positions within the chunk that are dirty, or null if everything is.
+     */
+    LongOpenHashSet within(World world, long chunk) {
+        if (overflow >= 0L) return null;
+        var within = new LongOpenHashSet();
+        for (var position : positions.keySet()) {
+            if (position.world() != world) continue;
+            long pos = position.pos();
+            if (ChunkPos.toLong(BlockPos.unpackLongX(pos) >> 4, BlockPos.unpackLongZ(pos) >> 4) == chunk) within.add(pos);
+        }
+        return within;
+    }
+
+    /**
+     * Must be synchronised on this.
+     *
+     * @return The amount of times positions have been cleaned up. If unchanged, anything dirty is still dirty.
+     */
+    long cleanups() {
+        return cleanups;
+    }
+
+    /**
+     * Called right before the queue is drained for a flush.
+     *
+     * @return The drain, to be passed to {@link #committed(long)} once the flush commits.
+     */
+    synchronized long drain() {
+        return drains++;
+    }
+
+    /**
+     * Forgets the positions dirtied before the drain, as their records are now visible to lookups.
+     * Positions dirtied just before are held for one more drain, as inventory deltas are only sent the flush after.
+     *
+     * @param drain The drain that has been committed.
+     */
+    synchronized void committed(long drain) {
+        if (overflow >= 0L && overflow < drain) {
+            overflow = -1L;
+            cleanups++;
+        }
+        if (!positions.isEmpty() && positions.values().removeIf(queued -> queued < drain)) cleanups++;
+    }
+
+    record Position(World world, long pos) {
+    }
+}
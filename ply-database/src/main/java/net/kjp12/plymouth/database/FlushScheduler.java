@@ -0,0 +1,144 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T14:48:20
+
+import net.kjp12.plymouth.database.records.RecordType;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides when the next flush is due: whichever comes first of enough records, enough bytes or
+ * the oldest record of a type reaching its maximum staleness.
+ * <p>
+ * Staleness is measured against the time the flush is expected to commit, so the deadline is pulled in by
+ * the average commit latency of previous flushes. Bytes are estimated from the row width of each type,
+ * as the records aren't encoded until flushed.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class FlushScheduler {
+    // Estimated width of a row of each type, in bytes. NBT isn't accounted for.
+    private static final int[] WIDTH = new int[RecordType.values().length];
+    private static final long MIN_DELAY = TimeUnit.MILLISECONDS.toNanos(1);
+    // How long to wait when nothing is pending; probing and spilled records are handled on this interval.
+    private static final long IDLE_DELAY = TimeUnit.SECONDS.toNanos(1);
+
+    static {
+        WIDTH[RecordType.BLOCK.ordinal()] = 96;
+        WIDTH[RecordType.DEATH.ordinal()] = 112;
+        WIDTH[RecordType.INVENTORY.ordinal()] = 128;
+    }
+
+    private final int recordLimit;
+    private final long byteLimit;
+    private final long[] staleness = new long[RecordType.values().length];
+    private final Runnable trigger;
+
+    private final AtomicInteger records = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    // When the oldest pending record of each type came in, or 0 if there are none.
+    private final AtomicLongArray oldest = new AtomicLongArray(RecordType.values().length);
+    private volatile long latency, scheduled = System.nanoTime() + IDLE_DELAY;
+
+    /**
+     * Reads the following properties.
+     * <ul>
+     *     <li><code>flushRecords</code> - Pending records that trigger a flush. Defaults to 4096.</li>
+     *     <li><code>flushBytes</code> - Estimated pending bytes that trigger a flush. Defaults to 1 MiB.</li>
+     *     <li><code>maxStalenessBlock</code> - How long a block record may wait in milliseconds. Defaults to 1000.</li>
+     *     <li><code>maxStalenessDeath</code> - How long a death record may wait in milliseconds. Defaults to 1000.</li>
+     *     <li><code>maxStalenessInventory</code> - How long inventory deltas may accumulate in milliseconds. Defaults to 10000.</li>
+     * </ul>
+     * Lookups run on the flush thread are always due immediately.
+     *
+     * @param trigger Requests a flush as soon as possible. May be called from any thread.
+     */
+    FlushScheduler(Properties properties, Runnable trigger) {
+        this.recordLimit = Integer.parseInt(properties.getProperty("flushRecords", "4096"));
+        this.byteLimit = Long.parseLong(properties.getProperty("flushBytes", "1048576"));
+        this.trigger = trigger;
+        staleness[RecordType.BLOCK.ordinal()] = millis(properties, "maxStalenessBlock", "1000");
+        staleness[RecordType.DEATH.ordinal()] = millis(properties, "maxStalenessDeath", "1000");
+        staleness[RecordType.INVENTORY.ordinal()] = millis(properties, "maxStalenessInventory", "10000");
+    }
+
+    private static long millis(Properties properties, String key, String def) {
+        return TimeUnit.MILLISECONDS.toNanos(Long.parseLong(properties.getProperty(key, def)));
+    }
+
+    /**
+     * Accounts for a record that is now pending, triggering a flush if it's now due
+     * or if it's due before the flush currently scheduled. May be called from any thread.
+     *
+     * @param type The type of the record.
+     */
+    void pending(RecordType type) {
+        int t = type.ordinal();
+        boolean due = records.incrementAndGet() == recordLimit;
+        long b = bytes.addAndGet(WIDTH[t]);
+        due |= b >= byteLimit && b - WIDTH[t] < byteLimit;
+        long now = System.nanoTime() | 1L;
+        if (oldest.get(t) == 0L && oldest.compareAndSet(t, 0L, now)) {
+            due |= now + staleness[t] - latency - scheduled < 0;
+        }
+        if (due) trigger.run();
+    }
+
+    /**
+     * @param now The current {@link System#nanoTime()}.
+     * @return true if a flush should happen now.
+     */
+    boolean isDue(long now) {
+        if (records.get() >= recordLimit || bytes.get() >= byteLimit) return true;
+        long latency = this.latency;
+        for (int t = 0, l = oldest.length(); t < l; t++) {
+            long since = oldest.get(t);
+            if (since != 0L && now - since >= staleness[t] - latency) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Resets the pending counts ahead of draining. Anything pending after this will be accounted towards the next flush.
+     */
+    void begin() {
+        records.set(0);
+        bytes.set(0L);
+        for (int t = 0, l = oldest.length(); t < l; t++) oldest.set(t, 0L);
+    }
+
+    /**
+     * Accounts for the time it took to commit a flush.
+     *
+     * @param nanos The time taken to commit.
+     */
+    void committed(long nanos) {
+        long latency = this.latency;
+        this.latency = latency == 0L ? nanos : latency + ((nanos - latency) >> 3);
+    }
+
+    /**
+     * @param now The current {@link System#nanoTime()}.
+     * @return The nanoseconds until the next flush is due.
+     */
+    long nextDelay(long now) {
+        long latency = this.latency, delay = IDLE_DELAY;
+        for (int t = 0, l = oldest.length(); t < l; t++) {
+            long since = oldest.get(t);
+            if (since != 0L) delay = Math.min(delay, since + staleness[t] - latency - now);
+        }
+        delay = Math.max(delay, MIN_DELAY);
+        scheduled = now + delay;
+        return delay;
+    }
+
+    /**
+     * @return The average time taken to commit a flush in nanoseconds.
+     */
+    long getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,121 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T15:31:12
+
+import net.kjp12.plymouth.database.records.InventoryRecord;
+import net.kjp12.plymouth.database.records.TargetRecord;
+import net.minecraft.item.ItemStack;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Accumulates inventory changes by inventory, mutator and stack, so that many small changes
+ * become a single record with the net delta.
+ * <p>
+ * Producers never block: the changes are added atomically into the current generation, which the flush swaps out
+ * for an empty one before draining. The flush only waits on producers that were mid-change as the swap happened.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class InventoryDeltas {
+    private volatile Generation current = new Generation();
+
+    /**
+     * Adds the delta to the accumulated record, creating the record if there's none yet. May be called from any thread.
+     *
+     * @param inventory The inventory items were added or removed from.
+     * @param mutator   The mutator of the inventory.
+     * @param reference The stack for reference. Only retained as given by <code>immutable</code>.
+     * @param delta     How much was added or removed from the inventory.
+     * @param immutable Creates a copy of the reference to retain.
+     * @return true if a new record was created, false if added to an existing one.
+     */
+    boolean add(TargetRecord inventory, TargetRecord mutator, ItemStack reference, int delta, UnaryOperator<ItemStack> immutable) {
+        var probe = new Key(inventory, mutator, reference);
+        while (true) {
+            var generation = current;
+            generation.writers.incrementAndGet();
+            try {
+                // Swapped out between reading and entering; the flush may have already drained it.
+                if (generation != current) continue;
+                var cell = generation.cells.get(probe);
+                if (cell != null) {
+                    cell.delta.addAndGet(delta);
+                    return false;
+                }
+                var stack = immutable.apply(reference);
+                var created = new Cell(new InventoryRecord(mutator, inventory, stack, 0), delta);
+                cell = generation.cells.putIfAbsent(new Key(inventory, mutator, stack), created);
+                if (cell == null) return true;
+                cell.delta.addAndGet(delta);
+                return false;
+            } finally {
+                generation.writers.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Swaps out the current generation and passes every accumulated record to the consumer.
+     * Must only be called from a single thread at a time.
+     *
+     * @param consumer The consumer to pass the records to.
+     * @return The amount of records drained.
+     */
+    int drain(Consumer<InventoryRecord> consumer) {
+        var generation = current;
+        if (generation.cells.isEmpty()) return 0;
+        current = new Generation();
+        while (generation.writers.get() != 0) Thread.onSpinWait();
+        for (var cell : generation.cells.values()) {
+            cell.record.delta = cell.delta.get();
+            consumer.accept(cell.record);
+        }
+        return generation.cells.size();
+    }
+
+    private static final class Generation {
+        private final ConcurrentHashMap<Key, Cell> cells = new ConcurrentHashMap<>();
+        private final AtomicInteger writers = new AtomicInteger();
+    }
+
+    private static final class Cell {
+        private final InventoryRecord record;
+        private final AtomicInteger delta;
+
+        private Cell(InventoryRecord record, int delta) {
+            this.record = record;
+            this.delta = new AtomicInteger(delta);
+        }
+    }
+
+    /**
+     * Key of the accumulated record, hashed once up front. Stacks are compared by {@link ItemStackHasher}.
+     */
+    private static final class Key {
+        private final TargetRecord inventory, mutator;
+        private final ItemStack stack;
+        private final int hash;
+
+        private Key(TargetRecord inventory, TargetRecord mutator, ItemStack stack) {
+            this.inventory = inventory;
+            this.mutator = mutator;
+            this.stack = stack;
+            this.hash = 31 * (31 * inventory.hashCode() + mutator.hashCode()) + ItemStackHasher.INSTANCE.hashCode(stack);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key key)) return false;
+            return hash == key.hash && inventory.equals(key.inventory) && mutator.equals(key.mutator) && ItemStackHasher.INSTANCE.equals(stack, key.stack);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T14:05:37
+
+import net.kjp12.plymouth.database.cache.SqlConnectionProvider;
+import net.kjp12.plymouth.database.records.LookupRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Pool of read-only connections that lookups are run on, so that they never wait behind a flush.
+ * <p>
+ * Each thread of the pool owns a single connection along with its own lookup caches, opened on first use
+ * and reopened if the connection is found to be dead after a failure.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class LookupPool {
+    private static final Logger log = LogManager.getLogger(LookupPool.class);
+    // Lookups are user-initiated, anything past this is better rejected than left waiting.
+    private static final int BACKLOG = 256;
+
+    private final Driver driver;
+    private final String uri;
+    private final Properties properties;
+    private final Function<SqlConnectionProvider, PlymouthSQL.LookupCaches> caches;
+    private final ThreadPoolExecutor executor;
+    private final ThreadLocal<Reader> readers = ThreadLocal.withInitial(Reader::new);
+
+    /**
+     * @param driver     The driver to connect with.
+     * @param uri        The URI to connect to.
+     * @param properties The properties to connect with.
+     * @param size       The amount of reader connections.
+     * @param caches     Creates the lookup caches for a reader connection.
+     */
+    LookupPool(Driver driver, String uri, Properties properties, int size, Function<SqlConnectionProvider, PlymouthSQL.LookupCaches> caches) {
+        this.driver = driver;
+        this.uri = uri;
+        this.properties = properties;
+        this.caches = caches;
+        var counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(BACKLOG), r -> {
+            var thread = new Thread(r, "Plymouth Lookup #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs the lookup on the next free reader, completing it from that reader's thread.
+     * The lookup is failed immediately if the backlog is full.
+     *
+     * @param lookup The lookup to run.
+     */
+    void submit(LookupRecord<?> lookup) {
+        try {
+            executor.execute(() -> readers.get().run(lookup));
+        } catch (RejectedExecutionException ree) {
+            lookup.fail(ree);
+        }
+    }
+
+    private final class Reader implements SqlConnectionProvider {
+        private Connection connection;
+        private PlymouthSQL.LookupCaches lookupCaches;
+
+        void run(LookupRecord<?> lookup) {
+            try {
+                if (connection == null) open();
+                lookupCaches.handle(lookup);
+            } catch (IllegalStateException | NullPointerException | PlymouthException | SQLException exception) {
+                lookup.fail(exception);
+                log.error("Failed to process lookup {}.", lookup, exception);
+                if (!isValid()) close();
+            }
+        }
+
+        private void open() throws SQLException {
+            connection = driver.connect(uri, properties);
+            connection.setReadOnly(true);
+            if (lookupCaches == null) lookupCaches = caches.apply(this);
+        }
+
+        private boolean isValid() {
+            try {
+                return connection != null && connection.isValid(5);
+            } catch (SQLException exception) {
+                return false;
+            }
+        }
+
+        /**
+         * Drops the connection along with every statement prepared on it; the next lookup reconnects.
+         */
+        private void close() {
+            if (lookupCaches != null) try {
+                lookupCaches.reload();
+            } catch (PlymouthException exception) {
+                log.warn("Failed to close statements of a dead reader connection.", exception);
+            }
+            if (connection != null) try {
+                connection.close();
+            } catch (SQLException exception) {
+                log.warn("Failed to close a dead reader connection.", exception);
+            }
+            connection = null;
+        }
+
+        @Override
+        public Connection getConnection() {
+            return connection;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T19:04:51
+
+import net.kjp12.plymouth.database.DirtyPositions.Position;
+import net.kjp12.plymouth.database.records.*;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of lookup results by position, in front of the statement caches, so that inspecting the same block
+ * or container again doesn't go back to the database.
+ * <p>
+ * Only lookups of a single position are cached, being those of the inspector, keyed by their type, flags, position
+ * and page. Queuing a record for a position drops everything cached for it, and the position is then held as
+ * {@link DirtyPositions dirty} until the record has committed, so that a lookup racing the flush isn't cached without it.
+ * Entries otherwise expire after a short time to bound anything else missed, such as a record still being coalesced.
+ * <p>
+ * Safe for concurrent use; queuing, lookups and flushes all happen on different threads.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class LookupResultCache {
+    private final DirtyPositions dirty;
+    private final int capacity;
+    private final long ttl;
+    // Access-ordered, so the eldest is the least recently used. Guarded by dirty.
+    private final LinkedHashMap<Position, List<Entry>> entries;
+    private long hits, misses;
+
+    /**
+     * @param dirty    The positions with records yet to be committed, also guarding this cache.
+     * @param capacity The amount of positions to hold results for.
+     * @param ttl      How long results are held for in nanoseconds.
+     */
+    LookupResultCache(DirtyPositions dirty, int capacity, long ttl) {
+        this.dirty = dirty;
+        this.capacity = capacity;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Position, List<Entry>> eldest) {
+                return size() > LookupResultCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Completes the lookup from the cache if a fresh result is held for it, otherwise arranges for its result
+     * to be cached once it completes.
+     *
+     * @param lookup The lookup about to be run.
+     * @return true if the lookup was completed from the cache and must not be run.
+     */
+    boolean offer(LookupRecord<?> lookup) {
+        var position = position(lookup);
+        if (position == null) return false;
+        var type = lookup.getType();
+        int flags = lookup.flags(), page = lookup.page;
+        long now = System.nanoTime(), issued;
+        Entry hit = null;
+        synchronized (dirty) {
+            var list = entries.get(position);
+            if (list != null) for (var entry : list) {
+                if (entry.type != type || entry.flags != flags || entry.page != page) continue;
+                if (now - entry.expires < 0) hit = entry;
+                else list.remove(entry);
+                break;
+            }
+            if (hit != null) {
+                hits++;
+                issued = 0L;
+            } else {
+                misses++;
+                if (dirty.isDirty(position)) return false;
+                issued = dirty.cleanups();
+            }
+        }
+        if (hit != null) {
+            // Completed outside the lock, as dependents may run right away on this thread.
+            var cursor = hit.cursor;
+            if (cursor != null) lookup.setNextCursor(cursor.time(), cursor.id());
+            complete(lookup, hit.results);
+            return true;
+        }
+        lookup.getFuture().thenAccept(results -> store(position, new Entry(type, flags, page, List.copyOf(results), lookup.getNextCursor(), System.nanoTime() + ttl), issued));
+        return false;
+    }
+
+    /**
+     * Drops anything cached for the record's positions, holding them as dirty until the record is committed.
+     *
+     * @param record The record being queued.
+     */
+    void invalidate(PlymouthRecord record) {
+        if (record instanceof BlockRecord block) {
+            invalidate(block.targetWorld, block.targetPos);
+        } else if (record instanceof InventoryRecord inventory) {
+            invalidate(inventory.causeWorld, inventory.causePos);
+            invalidate(inventory.targetWorld, inventory.targetPos);
+        }
+    }
+
+    /**
+     * @return The amount of lookups answered from the cache.
+     */
+    long getHits() {
+        synchronized (dirty) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return The amount of cacheable lookups that had to go to the database.
+     */
+    long getMisses() {
+        synchronized (dirty) {
+            return misses;
+        }
+    }
+
+    /**
+     * Drops anything cached for the position, holding it as dirty until a record for it is committed.
+     *
+     * @param world The world of the position, may be null.
+     * @param pos   The position, may be null.
+     */
+    void invalidate(World world, BlockPos pos) {
+        synchronized (dirty) {
+            var position = dirty.mark(world, pos);
+            if (position != null) entries.remove(position);
+        }
+    }
+
+    private void store(Position position, Entry entry, long issued) {
+        synchronized (dirty) {
+            // Anything dirtied since the lookup was issued is either still dirty, or was cleaned up since.
+            if (issued != dirty.cleanups() || dirty.isDirty(position)) return;
+            var list = entries.computeIfAbsent(position, p -> new ArrayList<>(2));
+            list.removeIf(e -> e.type == entry.type && e.flags == entry.flags && e.page == entry.page);
+            list.add(entry);
+        }
+    }
+
+    /**
+     * @return The single position the lookup is of, or null if it isn't one that's cached.
+     */
+    private static Position position(LookupRecord<?> lookup) {
+        if (lookup.cursor != null) return null;
+        if (lookup instanceof BlockLookupRecord block && block.flags() == LookupRecord.FLAG_T_AT) {
+            return new Position(block.targetWorld, block.minTPos.asLong());
+        }
+        if (lookup instanceof InventoryLookupRecord inventory && inventory.flags() == LookupRecord.FLAG_C_AT) {
+            return new Position(inventory.causeWorld, inventory.minPos.asLong());
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends PlymouthRecord> void complete(LookupRecord<T> lookup, List<?> results) {
+        lookup.complete((List<T>) results);
+    }
+
+    private record Entry(RecordType type, int flags, int page, List<?> results, LookupRecord.Cursor cursor, long expires) {
+    }
+}
@@ -0,0 +1,191 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T18:12:26
+
+import net.kjp12.plymouth.database.cache.SqlConnectionProvider;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites rows for schema migrations in bounded ranges of pages, each within its own short transaction,
+ * so that no lock is held across the entire table for the length of the migration.
+ * <p>
+ * Progress is checkpointed into <code>plymouth_metadata</code> within the same transaction as each range, keyed by
+ * the schema being migrated to, the backfill and the table. An interrupted migration resumes from the checkpoint on
+ * the next start. Every backfill must be idempotent by its filter, as rows already rewritten may be rewritten again
+ * after a resume, and rewritten rows may move to pages not yet visited.
+ * <p>
+ * Must only be used from {@link DatabaseHelper#SERVICE}, before the database is marked ready.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class MigrationEngine {
+    private static final Logger log = LogManager.getLogger(MigrationEngine.class);
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    private final SqlConnectionProvider provider;
+    private final int chunkPages;
+    private int schema;
+    // The checkpoint left by an interrupted migration, cleared once reached.
+    private String resumeAt;
+    private long resumePage;
+    private boolean tidRange;
+    private int tuplesPerPage;
+
+    /**
+     * Reads <code>migrationChunkPages</code>, the amount of pages rewritten per transaction. Defaults to 1024.
+     */
+    MigrationEngine(SqlConnectionProvider provider, Properties properties) {
+        this.provider = provider;
+        this.chunkPages = Math.max(1, Integer.parseInt(properties.getProperty("migrationChunkPages", "1024")));
+    }
+
+    /**
+     * Loads the checkpoint for the migration to the given schema, adding the columns to hold it if missing.
+     *
+     * @param statement The statement to execute with. Must not be within a transaction.
+     * @param schema    The schema being migrated to.
+     */
+    void begin(Statement statement, int schema) throws SQLException {
+        this.schema = schema;
+        statement.execute("ALTER TABLE plymouth_metadata ADD COLUMN IF NOT EXISTS migrating text, ADD COLUMN IF NOT EXISTS checkpoint bigint;");
+        resumeAt = null;
+        try (var results = statement.executeQuery("SELECT migrating, checkpoint, current_setting('server_version_num')::int, current_setting('block_size')::int FROM plymouth_metadata;")) {
+            if (results.next()) {
+                var migrating = results.getString(1);
+                if (migrating != null && migrating.startsWith(schema + "/")) {
+                    resumeAt = migrating;
+                    resumePage = results.getLong(2);
+                }
+                // TID range scans are only available from Postgres 14.
+                tidRange = results.getInt(3) >= 140000;
+                // MaxHeapTuplesPerPage: the page header, then a line pointer and minimal tuple header per tuple.
+                tuplesPerPage = (results.getInt(4) - 24) / 28;
+            }
+        }
+        if (resumeAt != null) log.info("Resuming migration to schema {} from {} at page {}.", schema, resumeAt, resumePage);
+    }
+
+    /**
+     * Rewrites every row of the table and any table inheriting from it that matches the filter.
+     * Skipped if the checkpoint is past this backfill.
+     *
+     * @param statement The statement to execute with. Must not be within a transaction.
+     * @param label     The name of the backfill, unique within the migration.
+     * @param table     The table to rewrite.
+     * @param set       The assignments, as following <code>SET</code>.
+     * @param where     The filter matching only the rows yet to be rewritten.
+     */
+    void backfill(Statement statement, String label, String table, String set, String where) throws SQLException {
+        backfill(statement, label, table, null, set, where);
+    }
+
+    /**
+     * Rewrites every row of the table and any table inheriting from it that matches the filter, running the common
+     * table expressions along with each range. The expressions may read the rows of the range yet to be rewritten as
+     * <code>pending</code>. Skipped if the checkpoint is past this backfill.
+     *
+     * @param statement The statement to execute with. Must not be within a transaction.
+     * @param label     The name of the backfill, unique within the migration.
+     * @param table     The table to rewrite.
+     * @param with      The common table expressions, as following <code>WITH pending AS (...),</code>, or null if none.
+     * @param set       The assignments, as following <code>SET</code>.
+     * @param where     The filter matching only the rows yet to be rewritten.
+     */
+    void backfill(Statement statement, String label, String table, String with, String set, String where) throws SQLException {
+        var connection = provider.getConnection();
+        var leaves = leaves(statement, table);
+        int first = 0;
+        long page = 0;
+        if (resumeAt != null) {
+            first = -1;
+            for (int i = 0; i < leaves.size(); i++) {
+                if (resumeAt.equals(key(label, leaves.get(i)))) {
+                    first = i;
+                    page = resumePage;
+                    resumeAt = null;
+                    break;
+                }
+            }
+            // Not within this backfill, so it must be one later on.
+            if (first < 0) return;
+        }
+        for (int i = first; i < leaves.size(); i++, page = 0) {
+            var leaf = leaves.get(i);
+            var key = key(label, leaf);
+            long pages;
+            try (var results = statement.executeQuery("SELECT pg_relation_size('" + leaf + "'::regclass) / current_setting('block_size')::int;")) {
+                pages = results.next() ? results.getLong(1) : 0L;
+            }
+            log.info("Backfilling {} ({}/{}, {} pages) for schema {}.", leaf, i + 1, leaves.size(), pages, schema);
+            long rows = 0, lastReport = System.nanoTime();
+            connection.setAutoCommit(false);
+            try (var checkpoint = connection.prepareStatement("UPDATE plymouth_metadata SET migrating = ?, checkpoint = ?;")) {
+                // Rows rewritten into pages past the end are already done, so the size as of the start suffices.
+                while (page < pages) {
+                    long end = Math.min(page + chunkPages, pages);
+                    var filter = range(page, end) + " AND (" + where + ")";
+                    var prefix = with == null ? "" : "WITH pending AS (SELECT * FROM ONLY " + leaf + " WHERE " + filter + "), " + with + " ";
+                    rows += statement.executeUpdate(prefix + "UPDATE ONLY " + leaf + " SET " + set + " WHERE " + filter + ";");
+                    checkpoint.setString(1, key);
+                    checkpoint.setLong(2, end);
+                    checkpoint.executeUpdate();
+                    connection.commit();
+                    page = end;
+                    long now = System.nanoTime();
+                    if (now - lastReport >= REPORT_INTERVAL) {
+                        log.info("Backfilling {}: {}% ({}/{} pages, {} rows).", leaf, page * 100 / pages, page, pages, rows);
+                        lastReport = now;
+                    }
+                }
+            } catch (SQLException sql) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollback) {
+                    sql.addSuppressed(rollback);
+                }
+                throw sql;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            log.info("Backfilled {} rows of {}.", rows, leaf);
+        }
+    }
+
+    /**
+     * Clears the checkpoint. Should be executed within the transaction that completes the migration.
+     *
+     * @param statement The statement to execute with.
+     */
+    static void finish(Statement statement) throws SQLException {
+        statement.executeUpdate("UPDATE plymouth_metadata SET migrating = NULL, checkpoint = NULL;");
+    }
+
+    private String key(String label, String leaf) {
+        return schema + "/" + label + "/" + leaf;
+    }
+
+    private String range(long start, long end) {
+        if (tidRange) return "ctid >= '(" + start + ",0)'::tid AND ctid < '(" + end + ",0)'::tid";
+        // Without range scans, every possible tuple of the range is listed for a TID scan instead.
+        return "ctid = ANY (ARRAY(SELECT format('(%s,%s)', p, t)::tid FROM generate_series(" + start + ", " + (end - 1) + ") p, generate_series(1, " + tuplesPerPage + ") t))";
+    }
+
+    /**
+     * @return The tables holding rows for the table, being itself and any table inheriting from it, in a stable order.
+     */
+    private static List<String> leaves(Statement statement, String table) throws SQLException {
+        var leaves = new ArrayList<String>();
+        try (var results = statement.executeQuery("WITH RECURSIVE tree(oid) AS (SELECT '" + table + "'::regclass::oid UNION ALL SELECT i.inhrelid FROM pg_inherits i JOIN tree t ON i.inhparent = t.oid) " +
+                "SELECT c.relname FROM tree JOIN pg_class c ON c.oid = tree.oid WHERE c.relkind = 'r' ORDER BY c.relname;")) {
+            while (results.next()) leaves.add(results.getString(1));
+        }
+        return leaves;
+    }
+}
@@ -0,0 +1,172 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T16:51:39
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.kjp12.plymouth.database.cache.SqlConnectionProvider;
+import net.minecraft.nbt.NbtCompound;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+/**
+ * Content-addressed store of NBT, keyed by the 128-bit murmur3 hash of the encoded NBT stored as a <code>uuid</code>.
+ * Rows refer to the hash in place of carrying the NBT, so the same NBT moved back and forth is only ever stored once.
+ * <p>
+ * Payloads are deflated straight into a binary <code>COPY</code> to the temporary <code>nbt_staging</code>, which is
+ * drained into <code>nbt_blobs</code> within the same transaction as the rows, so no payload is bound per row.
+ * The staging table empties itself on commit, which unlike deleting leaves nothing behind to vacuum.
+ * Hashes known to be stored are kept in a bounded direct-mapped set, so repeats skip the upload entirely and
+ * return the same {@link UUID} as before.
+ * A hash is only trusted once the transaction it was staged in commits; a rollback forgets it.
+ * Blobs are never deleted as rows are, but swept once partitions have been dropped past retention.
+ * Must only be used from {@link DatabaseHelper#SERVICE}.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class NbtBlobs {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final SqlConnectionProvider provider;
+    private final NbtBuffer buffer = new NbtBuffer();
+    private final CopyEncoder staged = new CopyEncoder("COPY nbt_staging (hash, data) FROM STDIN (FORMAT binary);");
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final byte[] digest = new byte[16];
+    // Direct-mapped by the low bits of the hash; a collision merely evicts, costing a redundant upload later.
+    private final UUID[] seen;
+    private final int mask;
+    // Slots set within the current transaction, cleared again on rollback.
+    private final IntArrayList uncommitted = new IntArrayList();
+    // Both are null until nbt_staging is known to exist on the current connection.
+    private CopyManager copy;
+    private PreparedStatement drain;
+
+    /**
+     * Reads <code>nbtBlobCache</code>, the amount of hashes remembered as stored, rounded up to a power of two.
+     * Defaults to 65536.
+     */
+    NbtBlobs(SqlConnectionProvider provider, Properties properties) {
+        this.provider = provider;
+        int capacity = Integer.parseInt(properties.getProperty("nbtBlobCache", "65536"));
+        capacity = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.seen = new UUID[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Hashes the NBT, staging its payload if it's not known to be stored.
+     *
+     * @param nbt The NBT to store.
+     * @return The hash to refer to the NBT by, or null if there's no NBT.
+     */
+    UUID put(NbtCompound nbt) {
+        if (nbt == null) return null;
+        try {
+            int start = buffer.append(nbt), end = buffer.length();
+            HASH.hashBytes(buffer.array(), start, end - start).writeBytesTo(digest, 0, 16);
+            long high = (long) LONGS.get(digest, 0), low = (long) LONGS.get(digest, 8);
+            int slot = (int) low & mask;
+            var uuid = seen[slot];
+            if (uuid != null && uuid.getMostSignificantBits() == high && uuid.getLeastSignificantBits() == low) return uuid;
+            uuid = new UUID(high, low);
+            staged.row(2).writeUuid(uuid).writeDeflated(deflater, buffer.array(), start, end - start);
+            seen[slot] = uuid;
+            uncommitted.add(slot);
+            return uuid;
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Sends the staged payloads, which must happen before the rows referring to them are sent.
+     *
+     * @throws SQLException If the payloads couldn't be stored.
+     */
+    void executeBatch() throws SQLException {
+        if (staged.rows() == 0) return;
+        if (copy == null) {
+            var connection = provider.getConnection();
+            try (var statement = connection.createStatement()) {
+                statement.execute("CREATE TEMPORARY TABLE IF NOT EXISTS nbt_staging (hash uuid NOT NULL, data bytea NOT NULL) ON COMMIT DELETE ROWS;");
+            }
+            drain = connection.prepareStatement("INSERT INTO nbt_blobs (hash, data) SELECT hash, data FROM nbt_staging ON CONFLICT DO NOTHING;");
+            copy = connection.unwrap(PGConnection.class).getCopyAPI();
+        }
+        staged.flush(copy);
+        drain.executeUpdate();
+    }
+
+    /**
+     * Discards anything staged. Must be called once the batches have been executed or have failed.
+     */
+    void reset() {
+        staged.discard();
+    }
+
+    /**
+     * Trusts the hashes staged within the transaction that just committed.
+     */
+    void committed() {
+        uncommitted.clear();
+    }
+
+    /**
+     * Drops the staging statements along with anything staged, as they belonged to the connection that was replaced.
+     * Every hash is forgotten too, as the database may have been restored while away, and a row referring to a blob
+     * that's no longer stored would lose its NBT without any error.
+     */
+    void reconnected() {
+        copy = null;
+        drain = null;
+        staged.discard();
+        forget();
+    }
+
+    /**
+     * Deletes every blob no longer referred to by <code>blocks</code> nor <code>items</code>, then forgets every hash
+     * as any of them may have been deleted. Scans both tables, so is only worth running once rows have been dropped.
+     *
+     * @return The amount of blobs deleted.
+     * @throws SQLException If the blobs couldn't be deleted.
+     */
+    int sweep() throws SQLException {
+        try (var statement = provider.getConnection().createStatement()) {
+            return statement.executeUpdate("DELETE FROM nbt_blobs b WHERE NOT EXISTS (SELECT 1 FROM blocks x WHERE x.nbt_hash = b.hash) AND NOT EXISTS (SELECT 1 FROM items x WHERE x.nbt_hash = b.hash);");
+        } finally {
+            forget();
+        }
+    }
+
+    private void forget() {
+        Arrays.fill(seen, null);
+        uncommitted.clear();
+    }
+
+    /**
+     * Forgets the hashes staged within the transaction that just rolled back, along with <code>nbt_staging</code>
+     * as it may have been created within it.
+     */
+    void rolledBack() {
+        for (int i = 0, l = uncommitted.size(); i < l; i++) seen[uncommitted.getInt(i)] = null;
+        uncommitted.clear();
+        if (drain != null) try {
+            drain.close();
+        } catch (SQLException ignored) {
+            // The statement is dropped regardless.
+        }
+        copy = null;
+        drain = null;
+    }
+}
@@ -0,0 +1,167 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T16:24:05
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reusable buffer that NBT is written straight into for hashing, and the pooled reader to decode it by.
+ * <p>
+ * Writes are appended after the last until reset, growing the buffer as needed.
+ * Growing the buffer leaves earlier ranges on the old array, which is never written to again.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class NbtBuffer {
+    private static final int INITIAL = 8192;
+    // Anything grown past this during a burst is let go on reset, rather than being held onto indefinitely.
+    private static final int RETAIN = 1 << 20;
+    private static final ThreadLocal<Reader> readers = ThreadLocal.withInitial(Reader::new);
+
+    private final DataOutputStream output = new DataOutputStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+            ensure(1);
+            buffer[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buffer, length, len);
+            length += len;
+        }
+    });
+    private byte[] buffer = new byte[INITIAL];
+    private int length;
+
+    /**
+     * Writes the NBT to the end of the buffer.
+     *
+     * @param nbt The NBT to write.
+     * @return Where the NBT starts; it ends at {@link #length()}.
+     */
+    int append(NbtCompound nbt) {
+        int start = length;
+        try {
+            NbtIo.write(nbt, output);
+        } catch (IOException ioe) {
+            // The output cannot fail, but any partial write is dropped regardless.
+            length = start;
+            throw new IllegalStateException("Failed to write NBT " + nbt, ioe);
+        }
+        return start;
+    }
+
+    /**
+     * @return The backing array as of now. Ranges written prior remain valid on it even after the buffer grows.
+     */
+    byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * @return The end of what has been written so far.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Reuses the buffer from the start. Ranges written prior must no longer be read.
+     */
+    void reset() {
+        length = 0;
+        if (buffer.length > RETAIN) buffer = new byte[INITIAL];
+    }
+
+    private void ensure(int bytes) {
+        if (length + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, length + bytes));
+        }
+    }
+
+    /**
+     * Decodes the NBT using a reader pooled to the calling thread.
+     *
+     * @param bytes The encoded NBT, may be null.
+     * @return The decoded NBT, or null if there was none.
+     * @throws IOException If the NBT is malformed.
+     */
+    static NbtCompound read(byte[] bytes) throws IOException {
+        if (bytes == null) return null;
+        return readers.get().read(bytes, bytes.length);
+    }
+
+    /**
+     * Inflates then decodes the NBT using a reader pooled to the calling thread.
+     *
+     * @param bytes The deflated NBT, may be null.
+     * @return The decoded NBT, or null if there was none.
+     * @throws IOException If the NBT is malformed or cannot be inflated.
+     */
+    static NbtCompound inflate(byte[] bytes) throws IOException {
+        if (bytes == null) return null;
+        var reader = readers.get();
+        var inflater = reader.inflater;
+        inflater.reset();
+        inflater.setInput(bytes);
+        var scratch = reader.scratch;
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == scratch.length) scratch = Arrays.copyOf(scratch, scratch.length << 1);
+                int n = inflater.inflate(scratch, length, scratch.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) throw new IOException("Truncated NBT blob.");
+                length += n;
+            }
+        } catch (DataFormatException dfe) {
+            throw new IOException(dfe);
+        }
+        if (scratch.length <= RETAIN) reader.scratch = scratch;
+        return reader.read(scratch, length);
+    }
+
+    private static final class Reader {
+        private final Input input = new Input();
+        private final DataInputStream data = new DataInputStream(input);
+        private final Inflater inflater = new Inflater();
+        private byte[] scratch = new byte[INITIAL];
+
+        private NbtCompound read(byte[] bytes, int length) throws IOException {
+            input.reset(bytes, length);
+            try {
+                return NbtIo.read(data);
+            } finally {
+                input.reset(Input.EMPTY, 0);
+            }
+        }
+    }
+
+    /**
+     * Byte array input that may be pointed at another array, so the reader around it can be reused.
+     */
+    private static final class Input extends ByteArrayInputStream {
+        private static final byte[] EMPTY = new byte[0];
+
+        private Input() {
+            super(EMPTY);
+        }
+
+        private void reset(byte[] bytes, int length) {
+            buf = bytes;
+            pos = 0;
+            mark = 0;
+            count = length;
+        }
+    }
+}
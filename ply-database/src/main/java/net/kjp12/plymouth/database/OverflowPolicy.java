@@ -0,0 +1,71 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T10:14:52
+
+import net.kjp12.plymouth.database.records.BlockRecord;
+import net.kjp12.plymouth.database.records.PlymouthRecord;
+
+import java.util.Locale;
+
+/**
+ * What to do with a record when the queue is saturated.
+ * <p>
+ * Set by <code>queueOverflow</code> in <code>plymouth.db.properties</code>.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+public enum OverflowPolicy {
+    /**
+     * Blocks the producer for up to <code>queueBlockMillis</code>, dropping the record if there's still no room.
+     */
+    BLOCK,
+    /**
+     * Drops the record, reserving the remaining room for higher priority records as the queue fills.
+     *
+     * @see #priority(PlymouthRecord)
+     */
+    DROP,
+    /**
+     * Spills the record to disk, to be inserted once the queue has drained.
+     */
+    SPILL;
+
+    /**
+     * The highest priority, reserved for lookups as someone is waiting on those.
+     */
+    static final int MAX_PRIORITY = 4;
+
+    static OverflowPolicy of(String name) {
+        return name == null || name.isBlank() ? SPILL : valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * The priority of a record, where higher is more important to keep.
+     * <ol start="0">
+     *     <li>Used blocks</li>
+     *     <li>Inventories</li>
+     *     <li>Broken and placed blocks</li>
+     *     <li>Deaths</li>
+     *     <li>Lookups</li>
+     * </ol>
+     */
+    static int priority(PlymouthRecord record) {
+        return switch (record.getType()) {
+            case BLOCK -> ((BlockRecord) record).action == BlockAction.USE ? 0 : 2;
+            case INVENTORY -> 1;
+            case DEATH -> 3;
+            default -> MAX_PRIORITY;
+        };
+    }
+
+    /**
+     * How full the queue may get before records of the given priority are dropped.
+     * Each step down in priority halves the room that is left.
+     *
+     * @param capacity The capacity of the queue.
+     * @param priority The priority of the record.
+     * @return The maximum depth a record of that priority may be admitted at.
+     */
+    static int limit(int capacity, int priority) {
+        return priority >= MAX_PRIORITY ? capacity : capacity - (capacity >>> (priority + 1));
+    }
+}
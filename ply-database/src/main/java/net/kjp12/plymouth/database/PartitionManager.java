@@ -0,0 +1,250 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T12:36:51
+
+import net.kjp12.plymouth.database.cache.SqlConnectionProvider;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Manages the range partitions of the mutation tables on <code>time</code>.
+ * <p>
+ * Partitions are named by the table followed by <code>_p</code> and the exclusive end of the range as
+ * <code>yyyyMMdd</code>, ie. <code>blocks_p20211025</code>, so that retention can be determined by name alone.
+ * Each table also has a <code>_default</code> partition to catch anything outside the managed ranges.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class PartitionManager {
+    private static final Logger log = LogManager.getLogger(PartitionManager.class);
+    static final String[] TABLES = {"blocks", "deaths", "items"};
+    // How many periods past the current one should exist at any given time.
+    private static final int AHEAD = 2;
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd", Locale.ROOT);
+    private static final Pattern PARTITION = Pattern.compile("_p(\\d{8})$");
+
+    private final SqlConnectionProvider provider;
+    private final ChronoUnit interval;
+    private final int retentionDays;
+    // The end of the partition the existing rows are kept in, as checked by prepare.
+    private LocalDate boundary;
+
+    /**
+     * Reads the following properties.
+     * <ul>
+     *     <li><code>partitionInterval</code> - One of day, week or month. Defaults to week.</li>
+     *     <li><code>retentionDays</code> - How many days of history to keep. 0, the default, keeps everything.</li>
+     * </ul>
+     */
+    PartitionManager(SqlConnectionProvider provider, Properties properties) {
+        this.provider = provider;
+        this.interval = switch (properties.getProperty("partitionInterval", "week").trim().toLowerCase(Locale.ROOT)) {
+            case "day" -> ChronoUnit.DAYS;
+            case "week" -> ChronoUnit.WEEKS;
+            case "month" -> ChronoUnit.MONTHS;
+            default -> throw new IllegalArgumentException("partitionInterval must be one of day, week or month.");
+        };
+        this.retentionDays = Integer.parseInt(properties.getProperty("retentionDays", "0"));
+    }
+
+    /**
+     * Prepares the inherited mutation tables for {@link #migrate(Statement)} outside of its transaction.
+     * <p>
+     * Every row is checked against the bound of the partition the table will become, and against the foreign key
+     * on <code>cause_id</code> previously inherited from <code>mutation</code>, through constraints added as
+     * <code>NOT VALID</code> then validated. Validating only takes a lock that lets writes through, and once valid,
+     * attaching the table and redeclaring the foreign keys doesn't scan the rows again.
+     * <p>
+     * The bound is the end of the current period, or of the period of the latest row if that's later, so that
+     * no existing row can fail the migration. Safe to call again after being interrupted.
+     *
+     * @param statement The statement to execute with. Must not be within a transaction.
+     */
+    void prepare(Statement statement) throws SQLException {
+        var latest = LocalDate.now(ZoneOffset.UTC);
+        for (var table : TABLES) {
+            try (var results = statement.executeQuery("SELECT max(time)::date FROM " + table + ";")) {
+                var date = results.next() ? results.getObject(1, LocalDate.class) : null;
+                if (date != null && date.isAfter(latest)) latest = date;
+            }
+        }
+        boundary = end(start(latest));
+        for (var table : TABLES) {
+            log.info("Checking the rows of {} against the partition bound {}.", table, boundary);
+            // The boundary may differ from an interrupted attempt on an earlier day, so this one is always redone.
+            statement.execute("ALTER TABLE " + table + " DROP CONSTRAINT IF EXISTS " + table + "_legacy_bound, ADD CONSTRAINT " + table + "_legacy_bound CHECK (time < '" + boundary + "') NOT VALID;");
+            statement.execute("ALTER TABLE " + table + " VALIDATE CONSTRAINT " + table + "_legacy_bound;");
+            var cause = table + "_cause_id_fkey";
+            Boolean valid = isValidated(statement, table, cause);
+            if (valid == Boolean.TRUE) continue;
+            log.info("Checking the causes of {} against users_table.", table);
+            if (valid == null) statement.execute("ALTER TABLE " + table + " ADD CONSTRAINT " + cause + " FOREIGN KEY (cause_id) REFERENCES users_table (index) NOT VALID;");
+            statement.execute("ALTER TABLE " + table + " VALIDATE CONSTRAINT " + cause + ";");
+        }
+    }
+
+    /**
+     * Converts the inherited mutation tables into partitioned tables. Must be preceded by {@link #prepare(Statement)}.
+     * <p>
+     * The existing tables are attached as-is as the partition running up to the bound checked beforehand,
+     * so no rows have to be copied nor scanned. As partitioned tables cannot take part in inheritance, they're detached
+     * from <code>mutation</code> beforehand, and the foreign keys previously inherited are redeclared, taking on the
+     * ones the existing tables already have.
+     *
+     * @param statement The statement to batch on, within the transaction of the migration.
+     */
+    void migrate(Statement statement) throws SQLException {
+        if (boundary == null) throw new IllegalStateException("Partitions haven't been prepared.");
+        for (var table : TABLES) {
+            var legacy = name(table, boundary);
+            log.info("Partitioning {}, keeping existing rows in {}.", table, legacy);
+            statement.addBatch("ALTER TABLE " + table + " NO INHERIT mutation;");
+            statement.addBatch("ALTER TABLE " + table + " RENAME TO " + legacy + ";");
+            statement.addBatch("CREATE TABLE " + table + " (LIKE " + legacy + " INCLUDING DEFAULTS) PARTITION BY RANGE (time);");
+            statement.addBatch("ALTER TABLE " + table + " ATTACH PARTITION " + legacy + " FOR VALUES FROM (MINVALUE) TO ('" + boundary + "');");
+            // Redundant with the partition bound now that it's attached.
+            statement.addBatch("ALTER TABLE " + legacy + " DROP CONSTRAINT " + table + "_legacy_bound;");
+            statement.addBatch("CREATE TABLE " + table + "_default PARTITION OF " + table + " DEFAULT;");
+            statement.executeBatch();
+        }
+        log.info("Redeclaring foreign keys on the partitioned tables.");
+        statement.addBatch("ALTER TABLE blocks ADD FOREIGN KEY (cause_id) REFERENCES users_table (index), ADD FOREIGN KEY (block) REFERENCES blocks_table (index);");
+        statement.addBatch("ALTER TABLE deaths ADD FOREIGN KEY (cause_id) REFERENCES users_table (index), ADD FOREIGN KEY (target_id) REFERENCES users_table (index);");
+        statement.addBatch("ALTER TABLE items ADD FOREIGN KEY (cause_id) REFERENCES users_table (index), ADD FOREIGN KEY (target_id) REFERENCES users_table (index);");
+        statement.executeBatch();
+    }
+
+    /**
+     * Creates the partitions for the upcoming periods, then detaches and drops any that are entirely past retention.
+     * Must only be called from {@link DatabaseHelper#SERVICE} as it shares the connection with the batches.
+     *
+     * @return The amount of partitions dropped.
+     */
+    int maintain() {
+        var today = LocalDate.now(ZoneOffset.UTC);
+        int dropped = 0;
+        try (var statement = provider.getConnection().createStatement()) {
+            for (var table : TABLES) {
+                var start = start(today);
+                for (int i = 0; i <= AHEAD; i++) {
+                    var end = end(start);
+                    try {
+                        statement.execute("CREATE TABLE IF NOT EXISTS " + name(table, end) + " PARTITION OF " + table + " FOR VALUES FROM ('" + start + "') TO ('" + end + "');");
+                    } catch (SQLException sql) {
+                        // Most likely overlapping a partition made under a different interval; it'll still be caught by the default partition.
+                        log.warn("Failed to create partition of {} for {} to {}.", table, start, end, sql);
+                    }
+                    start = end;
+                }
+                if (retentionDays > 0) dropped += expire(statement, table, today.minusDays(retentionDays));
+            }
+        } catch (SQLException sql) {
+            log.error("Failed to maintain partitions.", sql);
+        }
+        return dropped;
+    }
+
+    /**
+     * Creates an index on a partitioned table without blocking writes.
+     * <p>
+     * Postgres cannot build an index on a partitioned table concurrently, so the index is created on the parent alone,
+     * built concurrently on each partition, then attached. The parent index becomes valid once every partition
+     * has been attached, and any partition created afterwards gets its own automatically.
+     * Partitions already attached are skipped and invalid leftovers of an interrupted build are rebuilt,
+     * so this may be safely called again after a failure.
+     *
+     * @param statement  The statement to execute with. Must not be within a transaction.
+     * @param table      The partitioned table to index.
+     * @param suffix     The suffix of the index, appended to the table and partition names.
+     * @param definition The index definition following the table name, ie. <code>USING brin (time)</code>.
+     */
+    void createIndex(Statement statement, String table, String suffix, String definition) throws SQLException {
+        var parent = table + '_' + suffix;
+        statement.execute("CREATE INDEX IF NOT EXISTS " + parent + " ON ONLY " + table + ' ' + definition + ';');
+        var partitions = partitions(statement, table);
+        int i = 0;
+        for (var partition : partitions) {
+            i++;
+            if (isAttached(statement, parent, partition)) continue;
+            var index = partition + '_' + suffix;
+            log.info("Building {} ({}/{}).", index, i, partitions.size());
+            long start = System.nanoTime();
+            if (isInvalid(statement, index)) statement.execute("DROP INDEX CONCURRENTLY " + index + ';');
+            statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + index + " ON " + partition + ' ' + definition + ';');
+            statement.execute("ALTER INDEX " + parent + " ATTACH PARTITION " + index + ';');
+            log.info("Built {} in {}ms.", index, (System.nanoTime() - start) / 1_000_000L);
+        }
+    }
+
+    private static boolean isAttached(Statement statement, String parent, String partition) throws SQLException {
+        try (var results = statement.executeQuery("SELECT 1 FROM pg_inherits i JOIN pg_index x ON x.indexrelid = i.inhrelid WHERE i.inhparent = '" + parent + "'::regclass AND x.indrelid = '" + partition + "'::regclass;")) {
+            return results.next();
+        }
+    }
+
+    /**
+     * @return Whether the constraint has been validated, or null if there's no such constraint.
+     */
+    private static Boolean isValidated(Statement statement, String table, String constraint) throws SQLException {
+        try (var results = statement.executeQuery("SELECT convalidated FROM pg_constraint WHERE conrelid = '" + table + "'::regclass AND conname = '" + constraint + "';")) {
+            return results.next() ? results.getBoolean(1) : null;
+        }
+    }
+
+    private static boolean isInvalid(Statement statement, String index) throws SQLException {
+        try (var results = statement.executeQuery("SELECT NOT indisvalid FROM pg_index WHERE indexrelid = to_regclass('" + index + "');")) {
+            return results.next() && results.getBoolean(1);
+        }
+    }
+
+    private static List<String> partitions(Statement statement, String table) throws SQLException {
+        var partitions = new ArrayList<String>();
+        try (var results = statement.executeQuery("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = '" + table + "'::regclass;")) {
+            while (results.next()) partitions.add(results.getString(1));
+        }
+        return partitions;
+    }
+
+    private int expire(Statement statement, String table, LocalDate cutoff) throws SQLException {
+        var expired = new ArrayList<String>();
+        for (var name : partitions(statement, table)) {
+            var matcher = PARTITION.matcher(name);
+            if (matcher.find() && !LocalDate.parse(matcher.group(1), SUFFIX).isAfter(cutoff)) expired.add(name);
+        }
+        for (var name : expired) {
+            log.info("Dropping {} as it's past the retention of {} days.", name, retentionDays);
+            statement.execute("ALTER TABLE " + table + " DETACH PARTITION " + name + ";");
+            statement.execute("DROP TABLE " + name + ";");
+        }
+        return expired.size();
+    }
+
+    private LocalDate start(LocalDate date) {
+        return switch (interval) {
+            case WEEKS -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTHS -> date.withDayOfMonth(1);
+            default -> date;
+        };
+    }
+
+    private LocalDate end(LocalDate start) {
+        return start.plus(1, interval);
+    }
+
+    private static String name(String table, LocalDate end) {
+        return table + "_p" + SUFFIX.format(end);
+    }
+}
@@ -33,6 +33,17 @@ public interface Plymouth {
      */
     void initializeDatabase() throws PlymouthException;
 
+    /**
+     * Called when {@link #initializeDatabase()} failed to reach the database, so that records may be held on to
+     * while initializing is retried in the background.
+     *
+     * @param cause The failure to reach the database.
+     * @return true if initializing will be retried, false if the driver cannot do without the database.
+     */
+    default boolean initializeLater(PlymouthException cause) {
+        return false;
+    }
+
     /**
      * Instructs the database to send all batches.
      * <p>
@@ -50,6 +61,15 @@ public interface Plymouth {
      */
     void sendBatches();
 
+    /**
+     * How long to wait until calling {@link #sendBatches()} again, asked after every call.
+     *
+     * @return The delay in nanoseconds. Defaults to 100 milliseconds.
+     */
+    default long nextFlushDelay() {
+        return 100_000_000L;
+    }
+
     /**
      * Queues a record for insertion or query by the database.
      *
@@ -57,6 +77,16 @@ public interface Plymouth {
      */
     void queue(PlymouthRecord record);
 
+    /**
+     * Loads the recent history around the position ahead of time, for an inspector that's likely to look around it.
+     * Lookups of single positions within may then be answered without a round trip.
+     *
+     * @param world The world to load in.
+     * @param pos   The position to load around.
+     */
+    default void prefetch(ServerWorld world, BlockPos pos) {
+    }
+
     /**
      * @param world The world the block was broken in.
      * @param pos   Where the block got broken.
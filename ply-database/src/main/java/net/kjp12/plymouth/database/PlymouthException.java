@@ -15,6 +15,8 @@ import java.util.Objects;
  * @since ${version}
  */
 public class PlymouthException extends RuntimeException {
+    private boolean requiresIntervention;
+
     /**
      * Exception with only the cause known. No request aliased.
      */
@@ -45,6 +47,38 @@ public class PlymouthException extends RuntimeException {
         }
     }
 
+    /**
+     * Marks the failure as one that cannot be recovered from without an administrator, such as a failed migration.
+     * The server is stopped on such failures regardless of <code>closeOnError</code>.
+     *
+     * @return This exception, to be thrown.
+     */
+    public PlymouthException requireIntervention() {
+        requiresIntervention = true;
+        return this;
+    }
+
+    /**
+     * @return true if an administrator must intervene before the database can be used.
+     */
+    public boolean requiresIntervention() {
+        return requiresIntervention;
+    }
+
+    /**
+     * @return true if caused by failing to reach the database, rather than by anything the database rejected.
+     */
+    public boolean isConnectionFailure() {
+        for (Throwable cause = getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sql && sql.getSQLState() != null) {
+                var state = sql.getSQLState();
+                // Connection exceptions, along with the server shutting down or still starting up.
+                return state.startsWith("08") || state.equals("57P01") || state.equals("57P02") || state.equals("57P03");
+            }
+        }
+        return false;
+    }
+
     private static String writeOut(Object[] statements) {
         var sb = new StringBuilder("Failure point:\n");
         for (var s : statements) {
@@ -3,28 +3,35 @@ package net.kjp12.plymouth.database;
 import com.google.gson.JsonObject;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.kjp12.plymouth.database.cache.*;
 import net.kjp12.plymouth.database.records.*;
+import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NbtCompound;
-import net.minecraft.nbt.NbtIo;
 import net.minecraft.state.property.Property;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.math.Vec3i;
 import net.minecraft.util.registry.Registry;
 import net.minecraft.world.World;
 import net.minecraft.world.level.ServerWorldProperties;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.postgresql.Driver;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 
-import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static net.kjp12.plymouth.database.DatabaseHelper.*;
 import static net.kjp12.plymouth.database.records.LookupRecord.*;
@@ -41,36 +48,84 @@ import static net.kjp12.plymouth.database.records.LookupRecord.*;
 @Query(query = "time>?", values = "minTime", mask = FLAG_MIN_TIME)
 @Query(query = "time<?", values = "maxTime", mask = FLAG_MAX_TIME)
 @Query(query = "cause_pos=(?,?,?,?)::ipos",
-        values = {"minPos.getX()", "minPos.getY()", "minPos.getZ()", "<0?^.getWorldIndex(causeWorld)>0"},
+        values = {"minPos.getX()", "minPos.getY()", "minPos.getZ()", "<0?^.getCachedWorldIndex(causeWorld)>0"},
         mask = FLAG_C_AT | FLAG_C_AREA, maskRq = FLAG_C_AT)
-@Query(query = "cause_pos>=(?,?,?,?)::ipos and cause_pos<=(?,?,?,?)::ipos",
-        values = {"minPos.getX()", "minPos.getY()", "minPos.getZ()", "<0?^.getWorldIndex(causeWorld)>0", "maxPos.getX()", "maxPos.getY()", "maxPos.getZ()", "<0"},
+@Query(query = "(cause_pos).d=? and (cause_pos).x between ? and ? and (cause_pos).z between ? and ? and (cause_pos).y between ? and ?",
+        values = {"<0?^.getCachedWorldIndex(causeWorld)>0", "minPos.getX()", "maxPos.getX()", "minPos.getZ()", "maxPos.getZ()", "minPos.getY()", "maxPos.getY()"},
         mask = FLAG_C_AT | FLAG_C_AREA, maskRq = FLAG_C_AREA)
 public class PlymouthPostgres extends PlymouthSQL implements Plymouth {
     private static final Logger log = LogManager.getLogger(PlymouthPostgres.class);
+    /**
+     * The schema version this adaptor expects, recorded in <code>plymouth_metadata</code>.
+     */
+    public static final int SCHEMA = 7;
+    /**
+     * The most chunks an area lookup will match by key, 32 by 32. Larger areas match by position alone.
+     */
+    public static final int MAX_CHUNK_KEYS = 1024;
     // We don't need reverse lookup, this is perfectly acceptable.
     // In case we do need reverse lookup, we can batch as needed.
     private final Set<UUID>
             players = new HashSet<>(32);
     private final Int2IntMap
-            blocks = new Int2IntOpenHashMap(32),
             worlds = new Int2IntOpenHashMap(32);
+    // Every world within worlds_table by its level name and dimension, for lookups to resolve worlds without inserting.
+    // Guarded by worlds.
+    private final Object2IntOpenHashMap<String> worldNames = new Object2IntOpenHashMap<>();
+    // Indexed by the raw ID of the state within Block.STATE_IDS. 0 is unresolved as SERIAL starts at 1.
+    private int[] blocks = new int[0];
+    private int nullBlock;
+    // Indexed by the raw ID of the item within Registry.ITEM. 0 is unresolved as SERIAL starts at 1.
+    // Read by the lookup threads, so it's only ever replaced, never written to once published.
+    private volatile int[] items = new int[0];
+    private PreparedStatement getElseInsertItem;
+    // Bulk dictionary resolution, see resolveDictionaries.
+    private PreparedStatement upsertUsers, insertWorlds, selectWorlds, insertBlockStates, selectBlockStates, insertItemNames, selectItemNames;
+
+    // Only set when copyIngest is enabled; the regular prepared statements are used otherwise.
+    private CopyManager copyManager;
+    private CopyEncoder copyBlocks, copyDeaths, copyItems;
+    private final NbtBlobs nbtBlobs;
+
+    private final PartitionManager partitions;
+    private final MigrationEngine migrations;
 
     public PlymouthPostgres() throws NoClassDefFoundError {
         super(new Driver());
+        partitions = new PartitionManager(this, new Properties());
+        migrations = new MigrationEngine(this, new Properties());
+        nbtBlobs = new NbtBlobs(this, new Properties());
     }
 
     public PlymouthPostgres(String uri, Properties properties) throws PlymouthException, NoClassDefFoundError {
-        super(new Driver(), uri, properties);
+        super(new Driver(), uri, withDefaults(properties));
+        partitions = new PartitionManager(this, properties);
+        migrations = new MigrationEngine(this, properties);
+        nbtBlobs = new NbtBlobs(this, properties);
+        if (Boolean.parseBoolean(properties.getProperty("copyIngest"))) {
+            copyBlocks = new CopyEncoder("COPY blocks (cause_id, cause_raw, world, pos, chunk, block, action, nbt_hash, time) FROM STDIN (FORMAT binary);");
+            copyDeaths = new CopyEncoder("COPY deaths (cause_id, cause_raw, target_id, target_raw, target_pos, time) FROM STDIN (FORMAT binary);");
+            copyItems = new CopyEncoder("COPY items (cause_id, cause_raw, target_id, target_raw, world, pos, chunk, item, nbt_hash, delta, time) FROM STDIN (FORMAT binary);");
+        }
     }
 
-    {
+    /**
+     * Enables pgjdbc's rewriting of batched inserts into multi-row inserts unless explicitly configured.
+     */
+    private static Properties withDefaults(Properties properties) {
+        properties.putIfAbsent("reWriteBatchedInserts", "true");
+        return properties;
+    }
+
+    @Override
+    protected LookupCaches createLookupCaches(SqlConnectionProvider connection) throws PlymouthException {
         try {
-            blockLookupCache = new StatementCache<>(this, BlockLookupRecord.class, PlymouthPostgres.class.getMethod("blockRecordFromLookup", int.class, int.class, int.class, String.class, UUID.class, UUID.class, int.class, int.class, int.class, String.class, String.class, String.class, Timestamp.class, boolean.class));
-            deathLookupCache = new StatementCache<>(this, DeathLookupRecord.class, PlymouthPostgres.class.getMethod("deathRecordFromLookup", int.class, int.class, int.class, String.class, UUID.class, UUID.class, double.class, double.class, double.class, String.class, UUID.class, UUID.class, Timestamp.class, boolean.class));
-            inventoryLookupCache = new StatementCache<>(this, InventoryLookupRecord.class, PlymouthPostgres.class.getMethod("inventoryRecordFromLookup", int.class, int.class, int.class, String.class, UUID.class, UUID.class, int.class, int.class, int.class, String.class, UUID.class, UUID.class, Timestamp.class, boolean.class, String.class, InputStream.class, int.class));
+            return new LookupCaches(
+                    new StatementCache<>(this, connection, BlockLookupRecord.class, PlymouthPostgres.class.getMethod("blockRecordFromLookup", int.class, int.class, int.class, String.class, UUID.class, UUID.class, long.class, String.class, String.class, String.class, Timestamp.class, boolean.class), statementCacheSize),
+                    new StatementCache<>(this, connection, DeathLookupRecord.class, PlymouthPostgres.class.getMethod("deathRecordFromLookup", int.class, int.class, int.class, String.class, UUID.class, UUID.class, double.class, double.class, double.class, String.class, UUID.class, UUID.class, Timestamp.class, boolean.class), statementCacheSize),
+                    new StatementCache<>(this, connection, InventoryLookupRecord.class, PlymouthPostgres.class.getMethod("inventoryRecordFromLookup", int.class, int.class, int.class, String.class, UUID.class, UUID.class, long.class, String.class, UUID.class, UUID.class, Timestamp.class, boolean.class, String.class, byte[].class, byte[].class, int.class), statementCacheSize));
         } catch (ReflectiveOperationException roe) {
-            throw new PlymouthException(roe, "Failed to initialise lookup caches.", blockLookupCache, deathLookupCache, inventoryLookupCache);
+            throw new PlymouthException(roe, "Failed to initialise lookup caches.", connection);
         }
     }
 
@@ -97,17 +152,322 @@ public class PlymouthPostgres extends PlymouthSQL implements Plymouth {
      *
      * <h3><code>dpos</code> - Double-precision Position</h3>
      * The position represented in double X, Y, Z coordinates along with the originating dimension.
+     * <p>
+     * Connects beforehand, as the constructor leaves it to this so that it may run off of the main thread.
      */
     public void initializeDatabase() throws PlymouthException {
+        startConnection();
+        if (copyBlocks != null) try {
+            copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        } catch (SQLException sql) {
+            throw new PlymouthException(sql, connection);
+        }
+        initializeSchema();
+        upgradeSchema();
+        preloadWorlds();
+        preloadBlocks();
+        preloadItems();
+        maintain();
+        SERVICE.scheduleAtFixedRate(this::maintain, 1, 1, TimeUnit.HOURS);
+        ready();
+    }
+
+    /**
+     * Maintains the partitions, sweeping the NBT no longer referred to once any have been dropped past retention.
+     * Must only be called from {@link DatabaseHelper#SERVICE} as it shares the connection with the batches.
+     */
+    private void maintain() {
+        if (partitions.maintain() == 0) return;
+        try {
+            log.info("Swept {} NBT blobs no longer referred to.", nbtBlobs.sweep());
+        } catch (SQLException sql) {
+            log.error("Failed to sweep NBT blobs, leaving them to the next partitions dropped.", sql);
+        }
+    }
+
+    /**
+     * Upgrades the schema from the version recorded in <code>plymouth_metadata</code> to {@link #SCHEMA}.
+     * Each step runs within its own transaction, recording the version it upgraded to before committing.
+     * Steps that rewrite every row add their columns then backfill them beforehand through the {@link MigrationEngine},
+     * leaving only the quick changes to the catalog for the transaction. Interrupted backfills resume from their
+     * checkpoint on the next start.
+     *
+     * <h3>Schema 1</h3>
+     * Migrates from the original layout, replacing serial user and entity IDs with UUIDs and dropping
+     * <code>entities_table</code>. <code>cause_id</code> and <code>deaths.target_id</code> are checked against null
+     * by validating a <code>CHECK</code> constraint beforehand, which lets setting them as not null within the
+     * transaction skip scanning the tables on PostgreSQL 12 and newer.
+     *
+     * <h3>Schema 2</h3>
+     * <code>blocks</code>, <code>deaths</code> and <code>items</code> are range partitioned on <code>time</code>,
+     * see {@link PartitionManager}. The existing rows are checked against their partition bound and foreign keys
+     * beforehand, so the transaction only changes the catalog.
+     *
+     * <h3>Schema 3</h3>
+     * Lookup indices are built concurrently: BRIN on <code>time</code>, btree on <code>cause_id</code> and btree on
+     * <code>deaths.target_pos</code> as world, x, z then y. <code>blocks</code> and <code>items</code> have their
+     * positions indexed by schema 7 instead, as schema 6 drops their <code>target_pos</code>. This step cannot run
+     * within a transaction, and instead relies on
+     * {@link PartitionManager#createIndex(Statement, String, String, String)} being resumable.
+     *
+     * <h3>Schema 4</h3>
+     * NBT is moved out to <code>nbt_blobs</code>, deflated and keyed by its hash, see {@link NbtBlobs}.
+     * <code>blocks</code> and <code>items</code> gain <code>nbt_hash</code> referring to it. Existing rows keep their
+     * inline <code>nbt</code>, which lookups still fall back on.
+     *
+     * <h3>Schema 5</h3>
+     * <code>items.item</code> refers to the new <code>items_table</code> dictionary by index rather than
+     * holding the identifier as text. Every existing row is backfilled by this step, inserting the identifiers of each
+     * range into <code>items_table</code> along with it.
+     *
+     * <h3>Schema 6</h3>
+     * <code>blocks.target_pos</code> and <code>items.target_pos</code> are replaced by <code>world</code> as
+     * <code>smallint</code> and <code>pos</code> as <code>bigint</code> packed the same as {@link BlockPos#asLong()},
+     * along with <code>chunk</code> packed the same as {@link ChunkPos#toLong()}. Every existing row is backfilled by
+     * this step. <code>deaths</code> keeps its <code>dpos</code> as the position is fractional.
+     *
+     * <h3>Schema 7</h3>
+     * Builds btree indices on <code>blocks</code> and <code>items</code> as world, chunk then pos, concurrently as with
+     * schema 3. Point lookups match all three, area lookups match the chunks within the area before filtering.
+     */
+    private void upgradeSchema() throws PlymouthException {
         Statement statement = null;
         try {
-            getElseInsertUser = connection.prepareStatement("SELECT get_else_insert_user(?, ?);");
-            getElseInsertWorld = connection.prepareStatement("SELECT get_else_insert_world(?, ?);");
-            getElseInsertBlock = connection.prepareStatement("SELECT get_else_insert_block(?, ?::jsonb);");
-            insertBlocks = connection.prepareStatement("INSERT INTO blocks (cause_id, cause_raw, target_pos, block, action, nbt, time) VALUES (?, ?, (?, ?, ?, ?)::ipos, ?, ?::block_action, ?, ?);");
-            insertDeaths = connection.prepareStatement("INSERT INTO deaths (cause_id, cause_raw, target_id, target_raw, target_pos, time) VALUES (?, ?, ?, ?, (?, ?, ?, ?)::dpos, ?);");
-            insertItems = connection.prepareStatement("INSERT INTO items (cause_id, cause_raw, target_id, target_raw, target_pos, item, nbt, delta, time) VALUES (?, ?, ?, ?, (?, ?, ?, ?)::ipos, ?, ?, ?, ?);");
-            getUsername = connection.prepareStatement("SELECT name FROM users_table WHERE index = ?;");
+            statement = connection.createStatement();
+            int schema;
+            try (var results = statement.executeQuery("SELECT schema FROM plymouth_metadata;")) {
+                schema = results.next() ? results.getInt(1) : 1;
+            }
+            if (schema > SCHEMA) {
+                throw new PlymouthException(new SQLException("Schema " + schema + " is newer than the supported " + SCHEMA + "."), statement);
+            }
+            int from = schema;
+            while (schema < SCHEMA) {
+                int next = schema + 1;
+                log.info("Starting migration to schema {} ({}/{}).", next, next - from, SCHEMA - from);
+                long began = System.nanoTime();
+                if (next == 3 || next == 7) {
+                    // CREATE INDEX CONCURRENTLY cannot run within a transaction. A failure is left to be resumed next start.
+                    if (next == 3) createLookupIndexes(statement);
+                    else createChunkIndexes(statement);
+                    statement.executeUpdate("UPDATE plymouth_metadata SET schema = " + next + ";");
+                } else {
+                    boolean backfilled = backfill(statement, next);
+                    connection.setAutoCommit(false);
+                    Savepoint start = connection.setSavepoint();
+                    try {
+                        switch (next) {
+                            case 1 -> finishLegacyMigration(statement);
+                            case 2 -> partitions.migrate(statement);
+                            case 4 -> {
+                                statement.addBatch("CREATE TABLE IF NOT EXISTS nbt_blobs(hash uuid PRIMARY KEY, data bytea NOT NULL);");
+                                // Only adds to the catalog, existing partitions aren't rewritten.
+                                statement.addBatch("ALTER TABLE blocks ADD nbt_hash uuid;");
+                                statement.addBatch("ALTER TABLE items ADD nbt_hash uuid;");
+                                statement.executeBatch();
+                            }
+                            case 5 -> {
+                                statement.addBatch("ALTER TABLE items DROP item;");
+                                statement.addBatch("ALTER TABLE items RENAME item_id TO item;");
+                                statement.executeBatch();
+                            }
+                            case 6 -> {
+                                // Takes any world, x, z, y index built by an earlier schema 3 along with it.
+                                statement.addBatch("ALTER TABLE blocks DROP target_pos;");
+                                statement.addBatch("ALTER TABLE items DROP target_pos;");
+                                statement.executeBatch();
+                            }
+                            default -> throw new AssertionError("Missing migration to schema " + next);
+                        }
+                        if (backfilled) MigrationEngine.finish(statement);
+                        statement.executeUpdate("UPDATE plymouth_metadata SET schema = " + next + ";");
+                        connection.commit();
+                        connection.setAutoCommit(true);
+                    } catch (SQLException sql) {
+                        var t = new PlymouthException(sql, statement);
+                        try {
+                            connection.rollback(start);
+                            connection.close();
+                        } catch (SQLException sql2) {
+                            t.addSuppressed(sql2);
+                        }
+                        throw t.requireIntervention();
+                    }
+                }
+                log.info("Successfully migrated to schema {} in {}s.", next, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - began));
+                schema = next;
+            }
+        } catch (SQLException sql) {
+            throw new PlymouthException(sql, statement);
+        }
+    }
+
+    /**
+     * Adds the columns of the step then backfills them, each in their own short transactions.
+     * Everything here must be safe to run again, as it may be resumed after being interrupted.
+     *
+     * @return true if the step has a backfill, false if it's done entirely within the transaction of the step.
+     */
+    private boolean backfill(Statement statement, int next) throws SQLException {
+        switch (next) {
+            case 1 -> {
+                migrations.begin(statement, next);
+                log.info("Migrating serial user and entity IDs to UUIDs.");
+                statement.execute("ALTER TABLE mutation ADD COLUMN IF NOT EXISTS cause_uid uuid REFERENCES users_table (uid), ADD COLUMN IF NOT EXISTS cause_raw_uid uuid;");
+                statement.execute("ALTER TABLE deaths ADD COLUMN IF NOT EXISTS target_uid uuid REFERENCES users_table (uid), ADD COLUMN IF NOT EXISTS target_raw_uid uuid;");
+                statement.execute("ALTER TABLE items ADD COLUMN IF NOT EXISTS target_id uuid REFERENCES users_table (uid), ADD COLUMN IF NOT EXISTS target_raw uuid;");
+                // mutation also covers blocks, deaths and items as they inherit from it.
+                migrations.backfill(statement, "cause", "mutation",
+                        "cause_uid = (SELECT uid FROM users_table WHERE index = cause_id), cause_raw_uid = (SELECT uid FROM entities_table WHERE index = cause_raw)",
+                        "(cause_uid IS NULL AND cause_id IS NOT NULL) OR (cause_raw_uid IS NULL AND cause_raw IS NOT NULL)");
+                migrations.backfill(statement, "target", "deaths",
+                        "target_uid = (SELECT uid FROM users_table WHERE index = target_id), target_raw_uid = (SELECT uid FROM entities_table WHERE index = target_raw)",
+                        "(target_uid IS NULL AND target_id IS NOT NULL) OR (target_raw_uid IS NULL AND target_raw IS NOT NULL)");
+                migrations.backfill(statement, "inventory", "items",
+                        "target_id = (SELECT uid FROM users_table WHERE index = inventory_id), target_raw = (SELECT uid FROM entities_table WHERE index = inventory_raw)",
+                        "(target_id IS NULL AND inventory_id IS NOT NULL) OR (target_raw IS NULL AND inventory_raw IS NOT NULL)");
+                // Checked outside the transaction of the step, so setting them as not null there doesn't scan the tables.
+                for (var check : new String[][]{{"mutation", "cause_uid"}, {"deaths", "target_uid"}}) {
+                    var constraint = check[0] + '_' + check[1] + "_not_null";
+                    log.info("Checking {}.{} is never null.", check[0], check[1]);
+                    statement.execute("ALTER TABLE " + check[0] + " DROP CONSTRAINT IF EXISTS " + constraint + ", ADD CONSTRAINT " + constraint + " CHECK (" + check[1] + " IS NOT NULL) NOT VALID;");
+                    statement.execute("ALTER TABLE " + check[0] + " VALIDATE CONSTRAINT " + constraint + ";");
+                }
+            }
+            case 2 -> {
+                partitions.prepare(statement);
+                return false;
+            }
+            case 5 -> {
+                migrations.begin(statement, next);
+                log.info("Moving item identifiers into items_table.");
+                statement.execute("CREATE TABLE IF NOT EXISTS items_table (index SERIAL PRIMARY KEY, name TEXT NOT NULL UNIQUE);");
+                statement.execute("CREATE OR REPLACE FUNCTION get_else_insert_item(bname text) RETURNS int AS $$ WITH s AS (SELECT index FROM items_table WHERE name = bname), i AS (INSERT INTO items_table (name) SELECT bname WHERE NOT EXISTS (SELECT 1 FROM s) RETURNING index) SELECT index FROM i UNION ALL select index FROM s $$ LANGUAGE SQL;");
+                statement.execute("ALTER TABLE items ADD COLUMN IF NOT EXISTS item_id int REFERENCES items_table (index);");
+                // The names of each range are inserted along with it; new ones are only visible to the update by fresh.
+                migrations.backfill(statement, "item", "items",
+                        "fresh AS (INSERT INTO items_table (name) SELECT DISTINCT item FROM pending ON CONFLICT (name) DO NOTHING RETURNING index, name)",
+                        "item_id = coalesce((SELECT f.index FROM fresh f WHERE f.name = item), (SELECT t.index FROM items_table t WHERE t.name = item))",
+                        "item_id IS NULL AND item IS NOT NULL");
+            }
+            case 6 -> {
+                migrations.begin(statement, next);
+                for (var table : new String[]{"blocks", "items"}) {
+                    log.info("Packing {}.target_pos into world, pos and chunk.", table);
+                    statement.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS world smallint, ADD COLUMN IF NOT EXISTS pos bigint, ADD COLUMN IF NOT EXISTS chunk bigint;");
+                    migrations.backfill(statement, "pos", table,
+                            "world = (target_pos).d, pos = (((target_pos).x::bigint & 67108863) << 38) | (((target_pos).z::bigint & 67108863) << 12) | ((target_pos).y::bigint & 4095), " +
+                                    "chunk = (((target_pos).x >> 4)::bigint & 4294967295) | ((((target_pos).z >> 4)::bigint & 4294967295) << 32)",
+                            "pos IS NULL AND target_pos IS NOT NULL");
+                }
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Completes the migration from schema 0 once {@link #backfill(Statement, int)} has filled in the UUIDs,
+     * within the transaction of the step.
+     */
+    private void finishLegacyMigration(Statement statement) throws SQLException {
+        log.info("Swapping in the UUID columns.");
+        statement.addBatch("ALTER TABLE mutation DROP cause_id;");
+        statement.addBatch("ALTER TABLE mutation RENAME cause_uid TO cause_id;");
+        // We're enforcing the old semantics of NOT NULL. We couldn't set it at creation time as the entire column would've been null.
+        // Proven by the constraint validated beforehand, then redundant.
+        statement.addBatch("ALTER TABLE mutation ALTER COLUMN cause_id SET NOT NULL;");
+        statement.addBatch("ALTER TABLE mutation DROP CONSTRAINT mutation_cause_uid_not_null;");
+        statement.addBatch("ALTER TABLE mutation DROP cause_raw;");
+        statement.addBatch("ALTER TABLE mutation RENAME cause_raw_uid TO cause_raw;");
+        // blocks will be migrated from pos to target_pos to better standardise the tables.
+        statement.addBatch("ALTER TABLE blocks RENAME pos TO target_pos;");
+        statement.addBatch("ALTER TABLE deaths DROP target_id;");
+        statement.addBatch("ALTER TABLE deaths RENAME target_uid TO target_id;");
+        statement.addBatch("ALTER TABLE deaths ALTER COLUMN target_id SET NOT NULL;");
+        statement.addBatch("ALTER TABLE deaths DROP CONSTRAINT deaths_target_uid_not_null;");
+        statement.addBatch("ALTER TABLE deaths DROP target_raw;");
+        statement.addBatch("ALTER TABLE deaths RENAME target_raw_uid TO target_raw;");
+        statement.addBatch("ALTER TABLE deaths RENAME death_pos TO target_pos;");
+        // This didn't enforce the not null semantic before, so, there's no reason to set it here.
+        statement.addBatch("ALTER TABLE items DROP inventory_id;");
+        statement.addBatch("ALTER TABLE items DROP inventory_raw;");
+        statement.addBatch("ALTER TABLE items RENAME COLUMN inventory_pos TO target_pos;");
+        statement.executeBatch();
+
+        log.info("Replacing data and action with item, nbt and delta...");
+        statement.addBatch("ALTER TABLE items DROP COLUMN data;");
+        statement.addBatch("ALTER TABLE items DROP COLUMN action;");
+        statement.addBatch("DROP TYPE inventory_action;");
+        statement.addBatch("ALTER TABLE items ADD item text;");
+        statement.addBatch("ALTER TABLE items ADD nbt bytea;");
+        statement.addBatch("ALTER TABLE items ADD delta int;");
+        statement.executeBatch();
+
+        log.info("Dropping entities table...");
+        statement.addBatch("DROP FUNCTION get_else_insert_entity;");
+        statement.addBatch("DROP TABLE entities_table;");
+        statement.executeBatch();
+
+        // Migrate `uid` to `index` for more logical naming.
+        log.info("Migrating users_table.uid to index...");
+        // Dropping and redefining needs to be done so the function can still be used as normal.
+        statement.addBatch("DROP FUNCTION get_else_insert_user;");
+        statement.addBatch("ALTER TABLE users_table DROP index;");
+        statement.addBatch("ALTER TABLE users_table RENAME uid TO index;");
+        statement.addBatch("ALTER TABLE users_table ADD PRIMARY KEY (index);");
+        statement.addBatch("CREATE FUNCTION get_else_insert_user(bname text, buid uuid) RETURNS uuid AS $$ INSERT INTO users_table(index, name) VALUES(buid, bname) ON CONFLICT(index) DO UPDATE SET name = bname RETURNING index $$ LANGUAGE SQL;");
+        statement.executeBatch();
+
+        log.info("Adding NBT to blocks...");
+        statement.addBatch("ALTER TABLE blocks ADD nbt bytea;");
+        statement.executeBatch();
+    }
+
+    private void createChunkIndexes(Statement statement) throws SQLException {
+        for (var table : new String[]{"blocks", "items"}) {
+            log.info("Building chunk indices for {}.", table);
+            partitions.createIndex(statement, table, "chunk", "(world, chunk, pos)");
+        }
+    }
+
+    private void createLookupIndexes(Statement statement) throws SQLException {
+        for (var table : PartitionManager.TABLES) {
+            log.info("Building lookup indices for {}.", table);
+            partitions.createIndex(statement, table, "time", "USING brin (time)");
+            partitions.createIndex(statement, table, "cause", "(cause_id)");
+        }
+        // Only deaths keeps target_pos past schema 6, which is always migrated to along with this.
+        partitions.createIndex(statement, "deaths", "pos", "(((target_pos).d), ((target_pos).x), ((target_pos).z), ((target_pos).y))");
+    }
+
+    /**
+     * Prepares every statement of the writer connection, replacing any prepared on a previous connection.
+     */
+    private void prepareStatements() throws SQLException {
+        getElseInsertUser = connection.prepareStatement("SELECT get_else_insert_user(?, ?);");
+        getElseInsertWorld = connection.prepareStatement("SELECT get_else_insert_world(?, ?);");
+        getElseInsertBlock = connection.prepareStatement("SELECT get_else_insert_block(?, ?::jsonb);");
+        getElseInsertItem = connection.prepareStatement("SELECT get_else_insert_item(?);");
+        insertBlocks = connection.prepareStatement("INSERT INTO blocks (cause_id, cause_raw, world, pos, chunk, block, action, nbt_hash, time) VALUES (?, ?, ?, ?, ?, ?, ?::block_action, ?, ?);");
+        insertDeaths = connection.prepareStatement("INSERT INTO deaths (cause_id, cause_raw, target_id, target_raw, target_pos, time) VALUES (?, ?, ?, ?, (?, ?, ?, ?)::dpos, ?);");
+        insertItems = connection.prepareStatement("INSERT INTO items (cause_id, cause_raw, target_id, target_raw, world, pos, chunk, item, nbt_hash, delta, time) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);");
+        getUsername = connection.prepareStatement("SELECT name FROM users_table WHERE index = ?;");
+        upsertUsers = connection.prepareStatement("INSERT INTO users_table (index, name) SELECT * FROM unnest(?::uuid[], ?::text[]) ON CONFLICT (index) DO UPDATE SET name = excluded.name;");
+        insertWorlds = connection.prepareStatement("INSERT INTO worlds_table (name, dimension) SELECT DISTINCT v.name, v.dimension FROM unnest(?::text[], ?::text[]) AS v(name, dimension) WHERE NOT EXISTS (SELECT 1 FROM worlds_table w WHERE w.name = v.name AND w.dimension = v.dimension);");
+        selectWorlds = connection.prepareStatement("SELECT v.ord, (SELECT min(w.index) FROM worlds_table w WHERE w.name = v.name AND w.dimension = v.dimension) FROM unnest(?::text[], ?::text[]) WITH ORDINALITY AS v(name, dimension, ord);");
+        insertBlockStates = connection.prepareStatement("INSERT INTO blocks_table (name, properties) SELECT DISTINCT v.name, v.properties::jsonb FROM unnest(?::text[], ?::text[]) AS v(name, properties) WHERE NOT EXISTS (SELECT 1 FROM blocks_table b WHERE b.name = v.name AND (b.properties = v.properties::jsonb OR b.properties IS NULL));");
+        insertItemNames = connection.prepareStatement("INSERT INTO items_table (name) SELECT DISTINCT unnest(?::text[]) ON CONFLICT (name) DO NOTHING;");
+        selectItemNames = connection.prepareStatement("SELECT v.ord, t.index FROM unnest(?::text[]) WITH ORDINALITY AS v(name, ord) JOIN items_table t ON t.name = v.name;");
+        selectBlockStates = connection.prepareStatement("SELECT v.ord, (SELECT min(b.index) FROM blocks_table b WHERE b.name = v.name AND (b.properties = v.properties::jsonb OR b.properties IS NULL)) FROM unnest(?::text[], ?::text[]) WITH ORDINALITY AS v(name, properties, ord);");
+    }
+
+    private void initializeSchema() throws PlymouthException {
+        Statement statement = null;
+        try {
+            prepareStatements();
             // getBlocksInAreaDuring =   connection.prepareStatement("SELECT time AT TIME ZONE 'UTC', undone, ct.name, cause_id, cause_raw, (cause_pos).x, (cause_pos).y, (cause_pos).z, (target_pos).x, (target_pos).y, (target_pos).z, action, bt.name, bt.properties FROM blocks LEFT OUTER JOIN users_table ct ON (ct.index = cause_id) LEFT OUTER JOIN blocks_table bt ON (bt.index = block) WHERE target_pos >= (?, ?, ?, ?)::ipos AND target_pos <= (?, ?, ?, ?)::ipos                  AND time > ? AND time < ? ORDER BY time DESC LIMIT " + PAGE_SIZE + " OFFSET ?;");
             // getBlocksInAreaDuringBy = connection.prepareStatement("SELECT time AT TIME ZONE 'UTC', undone, ct.name,           cause_raw, (cause_pos).x, (cause_pos).y, (cause_pos).z, (target_pos).x, (target_pos).y, (target_pos).z, action, bt.name, bt.properties FROM blocks LEFT OUTER JOIN users_table ct ON (ct.index = cause_id) LEFT OUTER JOIN blocks_table bt ON (bt.index = block) WHERE target_pos >= (?, ?, ?, ?)::ipos AND target_pos <= (?, ?, ?, ?)::ipos AND cause_id = ? AND time > ? AND time < ? ORDER BY time DESC LIMIT " + PAGE_SIZE + " OFFSET ?;");
 
@@ -117,160 +477,29 @@ public class PlymouthPostgres extends PlymouthSQL implements Plymouth {
             // getInventoryInAreaDuring =   connection.prepareStatement("SELECT time AT TIME ZONE 'UTC', undone, ct.name, cause_id, cause_raw, (cause_pos).x, (cause_pos).y, (cause_pos).z, tt.name, target_id, target_raw, (target_pos).x, (target_pos).y, (target_pos).z, item, nbt, delta FROM items LEFT OUTER JOIN users_table ct ON (ct.index = cause_id) LEFT OUTER JOIN users_table tt ON (tt.index = target_id) WHERE target_pos >= (?, ?, ?, ?)::ipos AND target_pos <= (?, ?, ?, ?)::ipos                  AND time > ? AND time < ? ORDER BY time DESC LIMIT " + PAGE_SIZE + " OFFSET ?;");
             // getInventoryInAreaDuringBy = connection.prepareStatement("SELECT time AT TIME ZONE 'UTC', undone, ct.name,           cause_raw, (cause_pos).x, (cause_pos).y, (cause_pos).z, tt.name, target_id, target_raw, (target_pos).x, (target_pos).y, (target_pos).z, item, nbt, delta FROM items LEFT OUTER JOIN users_table ct ON (ct.index = cause_id) LEFT OUTER JOIN users_table tt ON (tt.index = target_id) WHERE target_pos >= (?, ?, ?, ?)::ipos AND target_pos <= (?, ?, ?, ?)::ipos AND cause_id = ? AND time > ? AND time < ? ORDER BY time DESC LIMIT " + PAGE_SIZE + " OFFSET ?;");
             try {
-                //noinspection unused - We don't have any schema bumps that'd require a change at the moment.
-                var results = connection.prepareStatement("SELECT schema FROM plymouth_metadata;").executeQuery();
-                // switch (results.getInt(1)) {
-                //     // We won't have cases for now.
-                // }
+                // The schema exists; any bumps are handled by upgradeSchema.
+                connection.prepareStatement("SELECT schema FROM plymouth_metadata;").executeQuery();
                 return;
             } catch (SQLException ignore) {
                 // We'll fall through to allow for backwards compatibility.
             }
+            boolean legacy;
             try {
                 connection.prepareStatement("SELECT now_utc();").executeQuery();
-                log.info("Starting migration to schema 1.");
-                // We'll have to do the mass migration here. We're going to be upgrading from schema 0 to schema 1
+                legacy = true;
+            } catch (SQLException ignore) {
+                legacy = false;
+            }
+            if (legacy) {
+                // Schema 0 from before there was metadata. The migration to schema 1 is left to upgradeSchema, so it may be resumed.
+                log.info("Found schema 0, it'll be migrated to schema 1.");
+                statement = connection.createStatement();
                 connection.setAutoCommit(false);
-                // This allows rollback of changes in case something goes horribly wrong, that is, if horribly wrong is resettable.
-                Savepoint start = connection.setSavepoint();
-                try {
-                    // Implementation detail: Within the massive transaction,
-                    // we're doing semi-atomic operations to allow for fail-fast when it does occur,
-                    // and to allow narrowing down which statement actually caused the issue.
-
-                    log.info("Creating metadata and setting schema to 1.");
-                    statement = connection.createStatement();
-                    // Create the metadata table then insert `1` into it.
-                    statement.addBatch("CREATE TABLE plymouth_metadata(schema INT NOT NULL);");
-                    statement.addBatch("INSERT INTO plymouth_metadata (schema) VALUES (1);");
-                    statement.executeBatch();
-
-                    // Note that for the following two migrations,
-                    // we can safely operate solely off of the mutation table as blocks and deaths delegate off the table,
-                    // inserting into it as they get inserted into.
-
-                    // Mutate cause_id to be a UUID based off of users_table.
-                    // We're migrating more manually as Postgres doesn't allow for off-table references as far as I can tell.
-                    log.info("Migrating mutation.cause_id to use UUID over serial ID. users_table will remain intact for name saving.");
-                    statement.addBatch("ALTER TABLE mutation ADD cause_uid uuid REFERENCES users_table (uid);");
-                    statement.addBatch("UPDATE mutation SET cause_uid = (SELECT uid FROM users_table WHERE index = cause_id);");
-                    statement.addBatch("ALTER TABLE mutation DROP cause_id;");
-                    statement.addBatch("ALTER TABLE mutation RENAME cause_uid TO cause_id;");
-                    // We're enforcing the old semantics of NOT NULL. We couldn't set it at creation time as the entire column would've been null.
-                    statement.addBatch("ALTER TABLE mutation ALTER COLUMN cause_id SET NOT NULL;");
-                    log.info("Successfully migrated {} entries.", statement.executeBatch()[1]);
-
-                    // Mutate cause_raw to be a UUID based off of entities_table.
-                    log.info("Migrating mutation.cause_raw to use UUID over serial ID, allowing removal of entities_table.");
-                    statement.addBatch("ALTER TABLE mutation ADD cause_uid uuid;");
-                    statement.addBatch("UPDATE mutation SET cause_uid = (SELECT uid FROM entities_table WHERE index = cause_raw);");
-                    statement.addBatch("ALTER TABLE mutation DROP cause_raw;");
-                    statement.addBatch("ALTER TABLE mutation RENAME cause_uid TO cause_raw;");
-                    log.info("Successfully migrated {} entries.", statement.executeBatch()[1]);
-
-                    // blocks will be migrated from pos to target_pos to better standardise the tables.
-                    log.info("Migrating blocks.pos to target_pos.");
-                    statement.addBatch("ALTER TABLE blocks RENAME pos TO target_pos;");
-                    statement.executeBatch();
-                    log.info("Successfully migrated pos to target_pos.");
-
-                    // deaths requires a bit more involvement as it has its own set of ID references.
-
-                    // Mutate target_id to be UUID based off of users_table.
-                    log.info("Migrating deaths.target_id to use UUID over serial ID.");
-                    statement.addBatch("ALTER TABLE deaths ADD target_uid uuid REFERENCES users_table (uid);");
-                    statement.addBatch("UPDATE deaths SET target_uid = (SELECT uid FROM users_table WHERE index = target_id);");
-                    statement.addBatch("ALTER TABLE deaths DROP target_id;");
-                    statement.addBatch("ALTER TABLE deaths RENAME target_uid TO target_id;");
-                    // Again, enforcing old semantics of NOT NULL.
-                    statement.addBatch("ALTER TABLE deaths ALTER COLUMN target_id SET NOT NULL;");
-                    log.info("Successfully migrated {} entries.", statement.executeBatch()[1]);
-
-                    // Mutate target_raw to be UUID based off of entities_table.
-                    log.info("Migrating deaths.target_raw to use UUID over serial ID.");
-                    statement.addBatch("ALTER TABLE deaths ADD target_uid uuid;");
-                    statement.addBatch("UPDATE deaths SET target_uid = (SELECT uid FROM entities_table WHERE index = target_raw);");
-                    statement.addBatch("ALTER TABLE deaths DROP target_raw;");
-                    statement.addBatch("ALTER TABLE deaths RENAME target_uid TO target_raw;");
-                    log.info("Successfully migrated {} entries.", statement.executeBatch()[1]);
-
-                    log.info("Migrating deaths.death_pos to target_pos.");
-                    statement.addBatch("ALTER TABLE deaths RENAME death_pos TO target_pos;");
-                    statement.executeBatch();
-                    log.info("Successfully migrated death_pos to target_pos.");
-
-                    // Mutate inventory_id to be target_id and UUID based off of users_table.
-                    log.info("Migrating items.inventory_id to target_id.");
-                    statement.addBatch("ALTER TABLE items ADD target_id uuid REFERENCES users_table (uid);");
-                    statement.addBatch("UPDATE items SET target_id = (SELECT uid FROM users_table WHERE index = inventory_id);");
-                    statement.addBatch("ALTER TABLE items DROP inventory_id;");
-                    // This didn't enforce the not null semantic before, so, there's no reason to set it here.
-                    log.info("Successfully migrated {} entries.", statement.executeBatch()[1]);
-
-                    // Mutate inventory_raw to be target_raw and UUID based off of entities_table.
-                    log.info("Migrating items.inventory_raw to target_raw.");
-                    statement.addBatch("ALTER TABLE items ADD target_raw uuid;");
-                    statement.addBatch("UPDATE items SET target_raw = (SELECT uid FROM entities_table WHERE index = inventory_raw);");
-                    statement.addBatch("ALTER TABLE items DROP inventory_raw;");
-                    log.info("Successfully migrated {} entries.", statement.executeBatch()[1]);
-
-                    log.info("Migrating items.inventory_pos to target_pos.");
-                    statement.addBatch("ALTER TABLE items RENAME COLUMN inventory_pos TO target_pos;");
-                    statement.executeBatch();
-                    log.info("Successfully migrated inventory_pos to target_pos.");
-
-                    log.info("Replacing data and action with item, nbt and delta...");
-                    statement.addBatch("ALTER TABLE items DROP COLUMN data;");
-                    statement.addBatch("ALTER TABLE items DROP COLUMN action;");
-                    statement.addBatch("DROP TYPE inventory_action;");
-                    statement.addBatch("ALTER TABLE items ADD item text;");
-                    statement.addBatch("ALTER TABLE items ADD nbt bytea;");
-                    statement.addBatch("ALTER TABLE items ADD delta int;");
-                    statement.executeBatch();
-                    log.info("Successfully dropped data and action.");
-
-                    // Drop the entities table.
-                    log.info("Dropping entities table...");
-                    statement.addBatch("DROP FUNCTION get_else_insert_entity;");
-                    statement.addBatch("DROP TABLE entities_table;");
-                    statement.executeBatch();
-                    log.info("Successfully dropped entities table.");
-
-                    // Migrate `uid` to `index` for more logical naming.
-                    log.info("Migrating users_table.uid to index...");
-                    // Dropping and redefining needs to be done so the function can still be used as normal.
-                    statement.addBatch("DROP FUNCTION get_else_insert_user;");
-                    statement.addBatch("ALTER TABLE users_table DROP index;");
-                    statement.addBatch("ALTER TABLE users_table RENAME uid TO index;");
-                    statement.addBatch("ALTER TABLE users_table ADD PRIMARY KEY (index);");
-                    statement.addBatch("CREATE FUNCTION get_else_insert_user(bname text, buid uuid) RETURNS uuid AS $$ INSERT INTO users_table(index, name) VALUES(buid, bname) ON CONFLICT(index) DO UPDATE SET name = bname RETURNING index $$ LANGUAGE SQL;");
-                    statement.executeBatch();
-                    log.info("Successfully migrated uid to index.");
-
-                    log.info("Adding NBT to blocks...");
-                    statement.addBatch("ALTER TABLE blocks ADD nbt bytea;");
-                    statement.executeBatch();
-                    log.info("Successfully added NBT column.");
-
-                    // Commit all the changes at once.
-                    connection.commit();
-                    // Set autocommit back to true since we don't need to worry about this failing and leaving the database in an unknown state.
-                    connection.setAutoCommit(true);
-                } catch (SQLException sql) {
-                    var t = new PlymouthException(sql, statement);
-                    try {
-                        // Rollback the database to before the failure.
-                        connection.rollback(start);
-                        // Close the connection; failure will be evident in runtime either way.
-                        connection.close();
-                    } catch (SQLException sql2) {
-                        t.addSuppressed(sql2);
-                    }
-                    // Bypassing the regular Plymouth catch as we're unable to continue with a database, and this requires intervention.
-                    throw new ExceptionInInitializerError(t);
-                }
+                statement.executeUpdate("CREATE TABLE plymouth_metadata(schema INT NOT NULL);");
+                statement.executeUpdate("INSERT INTO plymouth_metadata (schema) VALUES (0);");
+                connection.commit();
+                connection.setAutoCommit(true);
                 return;
-            } catch (SQLException ignore) {
             }
             statement = connection.createStatement();
             statement.addBatch("CREATE TABLE IF NOT EXISTS plymouth_metadata(schema INT NOT NULL);");
@@ -303,21 +532,107 @@ public class PlymouthPostgres extends PlymouthSQL implements Plymouth {
         }
     }
 
+    @Override
+    protected long executeBatches() throws SQLException {
+        try {
+            // The blobs go first, so they're never missing when the rows referring to them become visible.
+            try {
+                nbtBlobs.executeBatch();
+            } catch (SQLException exception) {
+                discardBatches(exception);
+                throw exception;
+            }
+            if (copyManager == null) return super.executeBatches();
+            var encoders = new CopyEncoder[]{copyBlocks, copyDeaths, copyItems};
+            long rows = 0;
+            int i = 0;
+            try {
+                for (; i < encoders.length; i++) rows += encoders[i].flush(copyManager);
+            } catch (SQLException exception) {
+                while (++i < encoders.length) encoders[i].discard();
+                throw exception;
+            }
+            return rows;
+        } finally {
+            nbtBlobs.reset();
+        }
+    }
+
+    private void discardBatches(SQLException exception) {
+        if (copyManager != null) {
+            copyBlocks.discard();
+            copyDeaths.discard();
+            copyItems.discard();
+            return;
+        }
+        for (var statement : new PreparedStatement[]{insertBlocks, insertDeaths, insertItems}) try {
+            statement.clearBatch();
+        } catch (SQLException clear) {
+            exception.addSuppressed(clear);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The dictionaries are preloaded again, as the database may have been restored while away.
+     */
+    @Override
+    protected void reconnected() throws SQLException, PlymouthException {
+        prepareStatements();
+        if (copyManager != null) copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        nbtBlobs.reconnected();
+        players.clear();
+        synchronized (worlds) {
+            worlds.clear();
+        }
+        preloadWorlds();
+        preloadBlocks();
+        preloadItems();
+    }
+
+    @Override
+    protected void committed() {
+        nbtBlobs.committed();
+    }
+
+    @Override
+    protected void rolledBack() {
+        nbtBlobs.rolledBack();
+    }
+
     @Override
     protected void handleBlockRecord(BlockRecord br) throws SQLException {
+        if (copyBlocks != null) {
+            // Dictionary lookups must happen before the row is started, else a failure would leave a partial row behind.
+            var user = getUserIndex(br.userName, br.userId);
+            var world = getWorldIndex(br.targetWorld);
+            var block = getBlockIndex(br.block);
+            var nbt = nbtBlobs.put(br.nbt);
+            copyBlocks.row(9).writeUuid(user).writeUuid(br.entityId).writePackedPos(br.targetPos, world).writeInt(block)
+                    .writeText(br.action.name()).writeUuid(nbt).writeTimestamp(br.time);
+            return;
+        }
         insertBlocks.setObject(1, getUserIndex(br.userName, br.userId));
         insertBlocks.setObject(2, br.entityId);
-        addVec3i(insertBlocks, 3, br.targetPos);
-        insertBlocks.setInt(6, getWorldIndex(br.targetWorld));
-        insertBlocks.setInt(7, getBlockIndex(br.block));
-        insertBlocks.setString(8, br.action.name());
-        insertBlocks.setBinaryStream(9, br.mkNbtStream());
-        insertBlocks.setTimestamp(10, Timestamp.from(br.time), UTC);
+        addPackedPos(insertBlocks, 3, getWorldIndex(br.targetWorld), br.targetPos);
+        insertBlocks.setInt(6, getBlockIndex(br.block));
+        insertBlocks.setString(7, br.action.name());
+        insertBlocks.setObject(8, nbtBlobs.put(br.nbt));
+        insertBlocks.setTimestamp(9, Timestamp.from(br.time), UTC);
         insertBlocks.addBatch();
     }
 
     @Override
     protected void handleDeathRecord(DeathRecord dr) throws SQLException {
+        if (copyDeaths != null) {
+            var cause = getUserIndex(dr.causeName, dr.causeUserId);
+            var target = getUserIndex(dr.targetName, dr.targetUserId);
+            var world = getWorldIndex(dr.targetWorld);
+            copyDeaths.row(6).writeUuid(cause).writeUuid(dr.causeEntityId).writeUuid(target).writeUuid(dr.targetEntityId)
+                    .writeDpos(dr.targetPos, world).writeTimestamp(dr.time);
+            return;
+        }
         insertDeaths.setObject(1, getUserIndex(dr.causeName, dr.causeUserId));
         insertDeaths.setObject(2, dr.causeEntityId);
         insertDeaths.setObject(3, getUserIndex(dr.targetName, dr.targetUserId));
@@ -330,36 +645,333 @@ public class PlymouthPostgres extends PlymouthSQL implements Plymouth {
 
     @Override
     protected void handleInventoryRecord(InventoryRecord ir) throws SQLException {
+        if (copyItems != null) {
+            var cause = getUserIndex(ir.causeName, ir.causeUserId);
+            var target = getUserIndex(ir.targetName, ir.targetUserId);
+            var world = ir.targetWorld == null ? null : getWorldIndex(ir.targetWorld);
+            var item = getItemIndex(ir.item);
+            var nbt = nbtBlobs.put(ir.nbt);
+            copyItems.row(11).writeUuid(cause).writeUuid(ir.causeEntityId).writeUuid(target).writeUuid(ir.targetEntityId)
+                    .writePackedPos(ir.targetPos, world).writeInt(item).writeUuid(nbt)
+                    .writeInt(ir.delta).writeTimestamp(ir.time);
+            return;
+        }
         insertItems.setObject(1, getUserIndex(ir.causeName, ir.causeUserId));
         insertItems.setObject(2, ir.causeEntityId);
         insertItems.setObject(3, getUserIndex(ir.targetName, ir.targetUserId));
         insertItems.setObject(4, ir.targetEntityId);
-        addVec3i(insertItems, 5, ir.targetPos);
-        if (ir.targetWorld == null) {
-            insertItems.setNull(8, Types.INTEGER);
-        } else {
-            insertItems.setInt(8, getWorldIndex(ir.targetWorld));
-        }
-        insertItems.setString(9, Registry.ITEM.getId(ir.item).toString());
-        insertItems.setBinaryStream(10, ir.mkNbtStream());
-        insertItems.setInt(11, ir.delta);
-        insertItems.setTimestamp(12, Timestamp.from(ir.time), UTC);
+        addPackedPos(insertItems, 5, ir.targetWorld == null ? null : getWorldIndex(ir.targetWorld), ir.targetPos);
+        insertItems.setInt(8, getItemIndex(ir.item));
+        insertItems.setObject(9, nbtBlobs.put(ir.nbt));
+        insertItems.setInt(10, ir.delta);
+        insertItems.setTimestamp(11, Timestamp.from(ir.time), UTC);
         insertItems.addBatch();
     }
 
     public int getBlockIndex(BlockState state) throws PlymouthException {
-        boolean f0 = areStatesUnnecessary(state);
-        return blocks.computeIfAbsent(f0 ? state == null ? 0 : state.getBlock().hashCode() : state.hashCode(), (int h) -> {
-            try {
-                getElseInsertBlock.setObject(1, state == null ? null : Registry.BLOCK.getId(state.getBlock()).toString());
-                getElseInsertBlock.setObject(2, f0 ? null : toJson(state.getEntries(), bannedProperties, Property::getName, Objects::toString));
-                var o = getElseInsertBlock.executeQuery();
-                if (!o.next()) throw new SQLException("?!");
-                return o.getInt(1);
-            } catch (SQLException sql) {
-                throw new PlymouthException(sql, getElseInsertBlock);
+        if (state == null) {
+            if (nullBlock == 0) nullBlock = resolveBlock(null);
+            return nullBlock;
+        }
+        int id = Block.STATE_IDS.getRawId(state);
+        if (id < 0) return resolveBlock(state);
+        int i = getCachedBlockIndex(state);
+        if (i != 0) return i;
+        // States registered after the preload fall back to the stored function, once.
+        cacheBlockIndex(state, i = resolveBlock(state));
+        return i;
+    }
+
+    /**
+     * Looks up the index of the item, inserting it if it's missing. Must only be called from the flush.
+     *
+     * @param item The item to look up.
+     * @return The integer index of the item within <code>items_table</code>.
+     * @throws PlymouthException If the lookup fails, giving the SQL error and the statement.
+     */
+    public int getItemIndex(Item item) throws PlymouthException {
+        int i = getCachedItemIndex(item);
+        if (i != 0) return i;
+        // Items registered after the preload fall back to the stored function, once.
+        try {
+            getElseInsertItem.setString(1, Registry.ITEM.getId(item).toString());
+            var o = getElseInsertItem.executeQuery();
+            if (!o.next()) throw new SQLException("?!");
+            cacheItemIndex(item, i = o.getInt(1));
+            return i;
+        } catch (SQLException sql) {
+            throw new PlymouthException(sql, getElseInsertItem);
+        }
+    }
+
+    /**
+     * @param pos The position to get the chunk of.
+     * @return The chunk key of the position, as stored in <code>chunk</code>.
+     */
+    public long chunkKey(Vec3i pos) {
+        return ChunkPos.toLong(pos.getX() >> 4, pos.getZ() >> 4);
+    }
+
+    /**
+     * @param min The minimum corner of the area.
+     * @param max The maximum corner of the area.
+     * @return The chunk keys of every chunk the area covers, as stored in <code>chunk</code>, or null if the area
+     * covers more than {@link #MAX_CHUNK_KEYS} chunks, leaving the lookup to the position ranges alone.
+     */
+    public long[] chunkKeys(Vec3i min, Vec3i max) {
+        int ax = min.getX() >> 4, az = min.getZ() >> 4, bx = max.getX() >> 4, bz = max.getZ() >> 4,
+                minX = Math.min(ax, bx), minZ = Math.min(az, bz), maxX = Math.max(ax, bx), maxZ = Math.max(az, bz);
+        long count = ((long) maxX - minX + 1L) * ((long) maxZ - minZ + 1L);
+        if (count > MAX_CHUNK_KEYS) return null;
+        var keys = new long[(int) count];
+        int i = 0;
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) keys[i++] = ChunkPos.toLong(x, z);
+        }
+        return keys;
+    }
+
+    /**
+     * Looks up the index of the item without inserting it, for lookups. Safe to call from any thread.
+     *
+     * @param item The item to look up.
+     * @return The integer index of the item, or 0 if it's not known, which matches no rows.
+     */
+    public int getCachedItemIndex(Item item) {
+        int id = Registry.ITEM.getRawId(item);
+        var items = this.items;
+        return id >= 0 && id < items.length ? items[id] : 0;
+    }
+
+    private void cacheItemIndex(Item item, int index) {
+        int id = Registry.ITEM.getRawId(item);
+        if (id < 0) return;
+        var items = this.items;
+        items = Arrays.copyOf(items, Math.max(id + 1, items.length));
+        items[id] = index;
+        this.items = items;
+    }
+
+    /**
+     * Resolves every registered item in bulk, filling {@link #items}.
+     */
+    private void preloadItems() throws PlymouthException {
+        var names = new ArrayList<String>();
+        var ids = new int[Registry.ITEM.getIds().size()];
+        for (var item : Registry.ITEM) {
+            int id = Registry.ITEM.getRawId(item);
+            if (id >= ids.length) ids = Arrays.copyOf(ids, id + 1);
+            names.add(Registry.ITEM.getId(item).toString());
+            ids[id] = names.size();
+        }
+        try {
+            var indices = resolveItems(names);
+            var resolved = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) resolved[i] = indices[ids[i]];
+            this.items = resolved;
+            log.info("Preloaded {} items.", names.size());
+        } catch (SQLException sql) {
+            throw new PlymouthException(sql, insertItemNames, selectItemNames);
+        }
+    }
+
+    /**
+     * Inserts any of the given items missing from <code>items_table</code>, then reads back their indices.
+     *
+     * @param names The identifiers of the items.
+     * @return The indices of the items, indexed from one to match the ordinality of the input.
+     */
+    private int[] resolveItems(List<String> names) throws SQLException {
+        var nameArray = connection.createArrayOf("text", names.toArray());
+        insertItemNames.setArray(1, nameArray);
+        insertItemNames.executeUpdate();
+        selectItemNames.setArray(1, nameArray);
+        var indices = new int[names.size() + 1];
+        try (var results = selectItemNames.executeQuery()) {
+            while (results.next()) indices[results.getInt(1)] = results.getInt(2);
+        }
+        return indices;
+    }
+
+    private int resolveBlock(BlockState state) throws PlymouthException {
+        try {
+            getElseInsertBlock.setObject(1, state == null ? null : Registry.BLOCK.getId(state.getBlock()).toString());
+            getElseInsertBlock.setObject(2, areStatesUnnecessary(state) ? null : toJson(state.getEntries(), bannedProperties, Property::getName, Objects::toString));
+            var o = getElseInsertBlock.executeQuery();
+            if (!o.next()) throw new SQLException("?!");
+            return o.getInt(1);
+        } catch (SQLException sql) {
+            throw new PlymouthException(sql, getElseInsertBlock);
+        }
+    }
+
+    /**
+     * Resolves every registered block state in bulk, filling {@link #blocks}.
+     * <p>
+     * States are deduplicated the same way {@link #resolveBlock(BlockState)} stores them, then any missing from
+     * <code>blocks_table</code> are inserted with one statement and the indices are read back with another.
+     */
+    private void preloadBlocks() throws PlymouthException {
+        var keys = new Object2IntOpenHashMap<String>();
+        var names = new ArrayList<String>();
+        var properties = new ArrayList<String>();
+        var states = new int[Block.STATE_IDS.size()];
+        for (var state : Block.STATE_IDS) {
+            var name = Registry.BLOCK.getId(state.getBlock()).toString();
+            var props = areStatesUnnecessary(state) ? null : toJson(state.getEntries(), bannedProperties, Property::getName, Objects::toString);
+            int id = Block.STATE_IDS.getRawId(state);
+            if (id >= states.length) states = Arrays.copyOf(states, id + 1);
+            var key = name + '\0' + props;
+            int index = keys.getInt(key);
+            if (index == 0) {
+                names.add(name);
+                properties.add(props);
+                keys.put(key, index = names.size());
             }
-        });
+            states[id] = index;
+        }
+        try {
+            var indices = resolveBlocks(names, properties);
+            var resolved = new int[states.length];
+            for (int i = 0; i < states.length; i++) resolved[i] = indices[states[i]];
+            this.blocks = resolved;
+            log.info("Preloaded {} block states as {} entries.", states.length, names.size());
+        } catch (SQLException sql) {
+            throw new PlymouthException(sql, insertBlockStates, selectBlockStates);
+        }
+    }
+
+    /**
+     * Inserts any of the given blocks missing from <code>blocks_table</code>, then reads back their indices.
+     *
+     * @param names      The names of the blocks.
+     * @param properties The properties of the blocks as JSON, null where the properties are unnecessary.
+     * @return The indices of the blocks, indexed from one to match the ordinality of the input.
+     */
+    private int[] resolveBlocks(List<String> names, List<String> properties) throws SQLException {
+        var nameArray = connection.createArrayOf("text", names.toArray());
+        var propertiesArray = connection.createArrayOf("text", properties.toArray());
+        insertBlockStates.setArray(1, nameArray);
+        insertBlockStates.setArray(2, propertiesArray);
+        insertBlockStates.executeUpdate();
+        selectBlockStates.setArray(1, nameArray);
+        selectBlockStates.setArray(2, propertiesArray);
+        var indices = new int[names.size() + 1];
+        try (var results = selectBlockStates.executeQuery()) {
+            while (results.next()) indices[results.getInt(1)] = results.getInt(2);
+        }
+        return indices;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Unseen users are upserted with one statement, while unseen worlds, block states and items are inserted with one
+     * statement each and read back with another.
+     */
+    @Override
+    protected void resolveDictionaries(List<PlymouthRecord> records) throws PlymouthException {
+        var users = new LinkedHashMap<UUID, String>();
+        var unseenWorlds = new Int2ObjectLinkedOpenHashMap<World>();
+        var unseenStates = new LinkedHashSet<BlockState>();
+        var unseenItems = new LinkedHashSet<Item>();
+        for (var record : records) {
+            if (record instanceof BlockRecord br) {
+                addUser(users, br.userName, br.userId);
+                addWorld(unseenWorlds, br.targetWorld);
+                if (br.block != null && getCachedBlockIndex(br.block) == 0) unseenStates.add(br.block);
+            } else if (record instanceof DeathRecord dr) {
+                addUser(users, dr.causeName, dr.causeUserId);
+                addUser(users, dr.targetName, dr.targetUserId);
+                addWorld(unseenWorlds, dr.targetWorld);
+            } else if (record instanceof InventoryRecord ir) {
+                addUser(users, ir.causeName, ir.causeUserId);
+                addUser(users, ir.targetName, ir.targetUserId);
+                addWorld(unseenWorlds, ir.targetWorld);
+                if (getCachedItemIndex(ir.item) == 0) unseenItems.add(ir.item);
+            }
+        }
+        PreparedStatement last = null;
+        try {
+            if (!users.isEmpty()) {
+                last = upsertUsers;
+                upsertUsers.setArray(1, connection.createArrayOf("uuid", users.keySet().toArray()));
+                upsertUsers.setArray(2, connection.createArrayOf("text", users.values().toArray()));
+                upsertUsers.executeUpdate();
+                players.addAll(users.keySet());
+            }
+            if (!unseenWorlds.isEmpty()) {
+                var names = new Object[unseenWorlds.size()];
+                var dimensions = new Object[names.length];
+                var hashes = unseenWorlds.keySet().toIntArray();
+                for (int i = 0; i < hashes.length; i++) {
+                    var world = unseenWorlds.get(hashes[i]);
+                    names[i] = ((ServerWorldProperties) world.getLevelProperties()).getLevelName();
+                    dimensions[i] = world.getRegistryKey().getValue().toString();
+                }
+                var nameArray = connection.createArrayOf("text", names);
+                var dimensionArray = connection.createArrayOf("text", dimensions);
+                last = insertWorlds;
+                insertWorlds.setArray(1, nameArray);
+                insertWorlds.setArray(2, dimensionArray);
+                insertWorlds.executeUpdate();
+                last = selectWorlds;
+                selectWorlds.setArray(1, nameArray);
+                selectWorlds.setArray(2, dimensionArray);
+                try (var results = selectWorlds.executeQuery()) {
+                    synchronized (worlds) {
+                        while (results.next()) worlds.put(hashes[results.getInt(1) - 1], results.getInt(2));
+                    }
+                }
+            }
+            if (!unseenStates.isEmpty()) {
+                var states = unseenStates.toArray(new BlockState[0]);
+                var names = new ArrayList<String>(states.length);
+                var properties = new ArrayList<String>(states.length);
+                for (var state : states) {
+                    names.add(Registry.BLOCK.getId(state.getBlock()).toString());
+                    properties.add(areStatesUnnecessary(state) ? null : toJson(state.getEntries(), bannedProperties, Property::getName, Objects::toString));
+                }
+                last = selectBlockStates;
+                var indices = resolveBlocks(names, properties);
+                for (int i = 0; i < states.length; i++) cacheBlockIndex(states[i], indices[i + 1]);
+            }
+            if (!unseenItems.isEmpty()) {
+                var unseen = unseenItems.toArray(new Item[0]);
+                var names = new ArrayList<String>(unseen.length);
+                for (var item : unseen) names.add(Registry.ITEM.getId(item).toString());
+                last = selectItemNames;
+                var indices = resolveItems(names);
+                for (int i = 0; i < unseen.length; i++) cacheItemIndex(unseen[i], indices[i + 1]);
+            }
+        } catch (SQLException sql) {
+            throw new PlymouthException(sql, last);
+        }
+    }
+
+    private void addUser(Map<UUID, String> users, String name, UUID uuid) {
+        // Nameless users are left to fail on their own rather than failing the whole statement.
+        if (uuid != null && name != null && !players.contains(uuid)) users.put(uuid, name);
+    }
+
+    private void addWorld(Int2ObjectMap<World> unseen, World world) {
+        if (world == null) return;
+        int hash = DatabaseHelper.getHash(world);
+        synchronized (worlds) {
+            if (!worlds.containsKey(hash)) unseen.put(hash, world);
+        }
+    }
+
+    private int getCachedBlockIndex(BlockState state) {
+        int id = Block.STATE_IDS.getRawId(state);
+        return id >= 0 && id < blocks.length ? blocks[id] : 0;
+    }
+
+    private void cacheBlockIndex(BlockState state, int index) {
+        int id = Block.STATE_IDS.getRawId(state);
+        if (id < 0) return;
+        if (id >= blocks.length) blocks = Arrays.copyOf(blocks, Math.max(id + 1, blocks.length + (blocks.length >>> 1)));
+        blocks[id] = index;
     }
 
     protected UUID getUserIndex(String name, UUID uuid) throws PlymouthException {
@@ -375,22 +987,73 @@ public class PlymouthPostgres extends PlymouthSQL implements Plymouth {
         return uuid;
     }
 
+    /**
+     * Looks up the integer index for a given world, inserting it if it doesn't exist yet.
+     * Must only be called from {@link DatabaseHelper#SERVICE}, as it inserts on the writer connection.
+     *
+     * @param world The world to look up.
+     * @return The integer index of the world within the database.
+     * @throws PlymouthException If the lookup fails, giving the SQL error and the statement.
+     */
     public int getWorldIndex(World world) throws PlymouthException {
-        return worlds.computeIfAbsent(DatabaseHelper.getHash(world), $ -> {
-            try {
-                getElseInsertWorld.setObject(1, ((ServerWorldProperties) world.getLevelProperties()).getLevelName());
-                getElseInsertWorld.setObject(2, world.getRegistryKey().getValue().toString());
-                var i = getElseInsertWorld.executeQuery();
-                if (!i.next()) throw new SQLException("?!");
-                return i.getInt(1);
-            } catch (SQLException sql) {
-                throw new PlymouthException(sql, getElseInsertWorld);
+        synchronized (worlds) {
+            return worlds.computeIfAbsent(DatabaseHelper.getHash(world), $ -> {
+                try {
+                    getElseInsertWorld.setObject(1, ((ServerWorldProperties) world.getLevelProperties()).getLevelName());
+                    getElseInsertWorld.setObject(2, world.getRegistryKey().getValue().toString());
+                    var i = getElseInsertWorld.executeQuery();
+                    if (!i.next()) throw new SQLException("?!");
+                    return i.getInt(1);
+                } catch (SQLException sql) {
+                    throw new PlymouthException(sql, getElseInsertWorld);
+                }
+            });
+        }
+    }
+
+    /**
+     * Looks up the index of the world without inserting it, for lookups. Safe to call from any thread.
+     *
+     * @param world The world to look up.
+     * @return The integer index of the world, or 0 if it's not known, which matches no rows.
+     */
+    public int getCachedWorldIndex(World world) {
+        int hash = DatabaseHelper.getHash(world);
+        synchronized (worlds) {
+            int index = worlds.get(hash);
+            if (index != 0) return index;
+            index = worldNames.getInt(worldName(world));
+            if (index != 0) worlds.put(hash, index);
+            return index;
+        }
+    }
+
+    /**
+     * Reads every world from <code>worlds_table</code> into {@link #worldNames}, so that lookups may resolve worlds
+     * that haven't been written to yet this session.
+     */
+    private void preloadWorlds() throws PlymouthException {
+        try (var statement = connection.createStatement();
+             var results = statement.executeQuery("SELECT index, name, dimension FROM worlds_table ORDER BY index;")) {
+            synchronized (worlds) {
+                worldNames.clear();
+                // Ordered so that duplicates resolve to the lowest, the same as selectWorlds.
+                while (results.next()) worldNames.putIfAbsent(results.getString(2) + '\0' + results.getString(3), results.getInt(1));
+                log.info("Preloaded {} worlds.", worldNames.size());
             }
-        });
+        } catch (SQLException sql) {
+            throw new PlymouthException(sql, connection);
+        }
+    }
+
+    private static String worldName(World world) {
+        return ((ServerWorldProperties) world.getLevelProperties()).getLevelName() + '\0' + world.getRegistryKey().getValue();
     }
 
     @Override
     public String getPlayerName(UUID uuid) throws PlymouthException {
+        // The connection is tied up by the bootstrap until then.
+        if (!isReady()) return null;
         databaseLock.lock();
         try {
             getUsername.setObject(1, uuid);
@@ -413,17 +1076,18 @@ public class PlymouthPostgres extends PlymouthSQL implements Plymouth {
     @Table("blocks")
     @Table(table = 1, value = "users_table", match = @Match(primary = "cause_id", secondary = "index"))
     @Table(table = 2, value = "blocks_table", match = @Match(primary = "block", secondary = "index"))
-    @Query(query = "target_pos=(?,?,?,?)::ipos",
-            values = {"minTPos.getX()", "minTPos.getY()", "minTPos.getZ()", "<1?^.getWorldIndex(targetWorld)>1"},
+    @Query(query = "world=? and chunk=? and pos=?",
+            values = {"^.getCachedWorldIndex(targetWorld)", "^.chunkKey(minTPos)", "minTPos.asLong()"},
             mask = FLAG_T_AT | FLAG_T_AREA, maskRq = FLAG_T_AT)
-    @Query(query = "target_pos>=(?,?,?,?)::ipos and target_pos<=(?,?,?,?)::ipos",
-            values = {"minTPos.getX()", "minTPos.getY()", "minTPos.getZ()", "<1?^.getWorldIndex(targetWorld)>1", "maxTPos.getX()", "maxTPos.getY()", "maxTPos.getZ()", "<1"},
+    @Query(query = "world=? and (chunk=any(?::bigint[]) or ?::bigint[] is null) and (pos>>38) between ? and ? and ((pos<<26)>>38) between ? and ? and ((pos<<52)>>52) between ? and ?",
+            values = {"^.getCachedWorldIndex(targetWorld)", "<1?^.chunkKeys(minTPos,maxTPos)>1", "<1?^.chunkKeys(minTPos,maxTPos)>1", "minTPos.getX()", "maxTPos.getX()", "minTPos.getZ()", "maxTPos.getZ()", "minTPos.getY()", "maxTPos.getY()"},
             mask = FLAG_T_AT | FLAG_T_AREA, maskRq = FLAG_T_AREA)
     // C0 is not capable of evaluation at this time. As such, it will be delegated to a method within
-    @Pagination(sort = @Value("time"), limit = "limit()", offset = "offset()")
+    @Pagination(sort = @Value("time"), limit = "limit()", offset = "offset()", tieBreaker = @Value("blocks.ctid"),
+            seek = @Query(query = "(time,blocks.ctid)<(?,?::tid)", values = {"cursor.time()", "cursor.id()"}, mask = FLAG_SEEK))
     public static BlockRecord blockRecordFromLookup(
             @Value({"cause_pos", "x"}) int cx, @Value({"cause_pos", "y"}) int cy, @Value({"cause_pos", "z"}) int cz, @Value(table = 1, value = "name") String cn, @Value("cause_id") UUID cu, @Value("cause_raw") UUID ce,
-            @Value({"target_pos", "x"}) int tx, @Value({"target_pos", "y"}) int ty, @Value({"target_pos", "z"}) int tz, @Deprecated @Value(value = "action") String ba, @Value(table = 2, value = "name") String bn, @Value(table = 2, value = "properties") String bp,
+            @Value("pos") long tp, @Deprecated @Value(value = "action") String ba, @Value(table = 2, value = "name") String bn, @Value(table = 2, value = "properties") String bp,
             @Value("time at time zone 'utc'") Timestamp time, @Value("undone") boolean u
     ) {
         var bl = Registry.BLOCK.get(Identifier.tryParse(bn));
@@ -440,7 +1104,7 @@ public class PlymouthPostgres extends PlymouthSQL implements Plymouth {
                 bs = bs.with((Property) prop, (Comparable) opt.get());
             }
         }
-        return new BlockRecord(time.toInstant(), u, null, new BlockPos(cx, cy, cz), cn, cu, ce, null, new BlockPos(tx, ty, tz), BlockAction.valueOf(ba), bs, null);
+        return new BlockRecord(time.toInstant(), u, null, new BlockPos(cx, cy, cz), cn, cu, ce, null, BlockPos.fromLong(tp), BlockAction.valueOf(ba), bs, null);
     }
 
     @Table("deaths")
@@ -448,13 +1112,15 @@ public class PlymouthPostgres extends PlymouthSQL implements Plymouth {
     @Table(table = 2, value = "users_table", match = @Match(primary = "target_id", secondary = "index"))
     @Query(query = "target_id=?", values = "targetUserId", mask = FLAG_T_UID)
     @Query(query = "target_raw=?", values = "targetEntityId", mask = FLAG_T_EID)
-    @Query(query = "target_pos=(?,?,?,?)::dpos",
-            values = {"minTPos.getX()", "minTPos.getY()", "minTPos.getZ()", "<1?^.getWorldIndex(targetWorld)>1"},
+    // Deaths are at fractional positions, so they're matched by the blocks they're within.
+    @Query(query = "(target_pos).d=? and (target_pos).x>=? and (target_pos).x<?+1 and (target_pos).z>=? and (target_pos).z<?+1 and (target_pos).y>=? and (target_pos).y<?+1",
+            values = {"<1?^.getCachedWorldIndex(targetWorld)>1", "minTPos.getX()", "minTPos.getX()", "minTPos.getZ()", "minTPos.getZ()", "minTPos.getY()", "minTPos.getY()"},
             mask = FLAG_T_AT | FLAG_T_AREA, maskRq = FLAG_T_AT)
-    @Query(query = "target_pos>=(?,?,?,?)::dpos and target_pos<=(?,?,?,?)::dpos",
-            values = {"minTPos.getX()", "minTPos.getY()", "minTPos.getZ()", "<1?^.getWorldIndex(targetWorld)>1", "maxTPos.getX()", "maxTPos.getY()", "maxTPos.getZ()", "<1"},
+    @Query(query = "(target_pos).d=? and (target_pos).x>=? and (target_pos).x<?+1 and (target_pos).z>=? and (target_pos).z<?+1 and (target_pos).y>=? and (target_pos).y<?+1",
+            values = {"<1?^.getCachedWorldIndex(targetWorld)>1", "minTPos.getX()", "maxTPos.getX()", "minTPos.getZ()", "maxTPos.getZ()", "minTPos.getY()", "maxTPos.getY()"},
             mask = FLAG_T_AT | FLAG_T_AREA, maskRq = FLAG_T_AREA)
-    @Pagination(sort = @Value("time"), limit = "limit()", offset = "offset()")
+    @Pagination(sort = @Value("time"), limit = "limit()", offset = "offset()", tieBreaker = @Value("deaths.ctid"),
+            seek = @Query(query = "(time,deaths.ctid)<(?,?::tid)", values = {"cursor.time()", "cursor.id()"}, mask = FLAG_SEEK))
     public static DeathRecord deathRecordFromLookup(
             @Value({"cause_pos", "x"}) int cx, @Value({"cause_pos", "y"}) int cy, @Value({"cause_pos", "z"}) int cz, @Value(table = 1, value = "name") String cn, @Value("cause_id") UUID cu, @Value("cause_raw") UUID ce,
             @Value({"target_pos", "x"}) double tx, @Value({"target_pos", "y"}) double ty, @Value({"target_pos", "z"}) double tz, @Value(table = 2, value = "name") String tn, @Value("target_id") UUID tu, @Value("target_raw") UUID te,
@@ -466,39 +1132,55 @@ public class PlymouthPostgres extends PlymouthSQL implements Plymouth {
     @Table("items")
     @Table(table = 1, value = "users_table", match = @Match(primary = "cause_id", secondary = "index"))
     @Table(table = 2, value = "users_table", match = @Match(primary = "target_id", secondary = "index"))
+    @Table(table = 3, value = "nbt_blobs", match = @Match(primary = "nbt_hash", secondary = "hash"))
+    @Table(table = 4, value = "items_table", match = @Match(primary = "item", secondary = "index"))
     @Query(query = "target_id=?", values = "targetUserId", mask = FLAG_T_UID)
     @Query(query = "target_raw=?", values = "targetEntityId", mask = FLAG_T_EID)
-    @Query(query = "target_pos=(?,?,?,?)::ipos",
-            values = {"minTPos.getX()", "minTPos.getY()", "minTPos.getZ()", "<1?^.getWorldIndex(targetWorld)>1"},
+    @Query(query = "world=? and chunk=? and pos=?",
+            values = {"^.getCachedWorldIndex(targetWorld)", "^.chunkKey(minTPos)", "minTPos.asLong()"},
             mask = FLAG_T_AT | FLAG_T_AREA, maskRq = FLAG_T_AT)
-    @Query(query = "target_pos>=(?,?,?,?)::ipos and target_pos<=(?,?,?,?)::ipos",
-            values = {"minTPos.getX()", "minTPos.getY()", "minTPos.getZ()", "<1?^.getWorldIndex(targetWorld)>1", "maxTPos.getX()", "maxTPos.getY()", "maxTPos.getZ()", "<1"},
+    @Query(query = "world=? and (chunk=any(?::bigint[]) or ?::bigint[] is null) and (pos>>38) between ? and ? and ((pos<<26)>>38) between ? and ? and ((pos<<52)>>52) between ? and ?",
+            values = {"^.getCachedWorldIndex(targetWorld)", "<1?^.chunkKeys(minTPos,maxTPos)>1", "<1?^.chunkKeys(minTPos,maxTPos)>1", "minTPos.getX()", "maxTPos.getX()", "minTPos.getZ()", "maxTPos.getZ()", "minTPos.getY()", "maxTPos.getY()"},
             mask = FLAG_T_AT | FLAG_T_AREA, maskRq = FLAG_T_AREA)
-    @Query(query = "item=?", values = "item()", mask = FLAG_ITEM)
-    @Pagination(sort = @Value("time"), limit = "limit()", offset = "offset()")
+    @Query(query = "item=?", values = "^.getCachedItemIndex(item)", mask = FLAG_ITEM)
+    @Pagination(sort = @Value("time"), limit = "limit()", offset = "offset()", tieBreaker = @Value("items.ctid"),
+            seek = @Query(query = "(time,items.ctid)<(?,?::tid)", values = {"cursor.time()", "cursor.id()"}, mask = FLAG_SEEK))
     public static InventoryRecord inventoryRecordFromLookup(
             @Value({"cause_pos", "x"}) int cx, @Value({"cause_pos", "y"}) int cy, @Value({"cause_pos", "z"}) int cz, @Value(table = 1, value = "name") String cn, @Value("cause_id") UUID cu, @Value("cause_raw") UUID ce,
-            @Value({"target_pos", "x"}) int tx, @Value({"target_pos", "y"}) int ty, @Value({"target_pos", "z"}) int tz, @Value(table = 2, value = "name") String tn, @Value("target_id") UUID tu, @Value("target_raw") UUID te,
-            @Value("time at time zone 'utc'") Timestamp time, @Value("undone") boolean u, @Value("item") String i, @Value("nbt") InputStream in, @Value("delta") int id
+            @Value("pos") long tp, @Value(table = 2, value = "name") String tn, @Value("target_id") UUID tu, @Value("target_raw") UUID te,
+            @Value("time at time zone 'utc'") Timestamp time, @Value("undone") boolean u, @Value(table = 4, value = "name") String i, @Value("nbt") byte[] in, @Value(table = 3, value = "data") byte[] blob, @Value("delta") int id
     ) {
         var item = Registry.ITEM.get(Identifier.tryParse(i));
         var is = new ItemStack(item, 1);
-        var nbt = nbt(in);
+        var nbt = blob == null ? nbt(in) : blob(blob);
         is.setTag(nbt);
         return new InventoryRecord(
                 null, new BlockPos(cx, cy, cz), cn, cu, ce,
-                null, new BlockPos(tx, ty, tz), tn, tu, te,
+                null, BlockPos.fromLong(tp), tn, tu, te,
                 time.toInstant(), u, item, nbt, id, is, 0);
     }
 
-    public static NbtCompound nbt(InputStream stream) {
-        if (stream == null) return null;
-        NbtCompound in = null;
-        try (var s = stream; var dis = new DataInputStream(s)) {
-            in = NbtIo.read(dis);
+    public static NbtCompound nbt(byte[] bytes) {
+        try {
+            return NbtBuffer.read(bytes);
         } catch (IOException ioe) {
             log.error("Failed to read NBT from database.", ioe);
+            return null;
+        }
+    }
+
+    /**
+     * Decodes NBT stored in <code>nbt_blobs</code>.
+     *
+     * @param bytes The deflated NBT.
+     * @return The NBT, or null if it couldn't be decoded.
+     */
+    public static NbtCompound blob(byte[] bytes) {
+        try {
+            return NbtBuffer.inflate(bytes);
+        } catch (IOException ioe) {
+            log.error("Failed to read NBT blob from database.", ioe);
+            return null;
         }
-        return in;
     }
 }
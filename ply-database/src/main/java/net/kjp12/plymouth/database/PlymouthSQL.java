@@ -1,8 +1,5 @@
 package net.kjp12.plymouth.database;
 
-import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectMaps;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenCustomHashMap;
 import net.kjp12.plymouth.database.cache.SqlConnectionProvider;
 import net.kjp12.plymouth.database.cache.StatementCache;
 import net.kjp12.plymouth.database.records.*;
@@ -20,15 +17,19 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -40,34 +41,175 @@ import java.util.concurrent.locks.ReentrantLock;
 public abstract class PlymouthSQL implements Plymouth, SqlConnectionProvider {
     private static final Logger log = LogManager.getLogger(PlymouthSQL.class);
 
-    private int ticks = 0;
     private final ItemStack[] immutablesCache = new ItemStack[256];
-    private final Map<TargetRecord, Map<TargetRecord, Object2ObjectMap<ItemStack, InventoryRecord>>> inventoryDeltaTable = new HashMap<>();
+    private final InventoryDeltas inventoryDeltas = new InventoryDeltas();
 
     protected Driver driver;
     protected Connection connection;
+    // Retained to reconnect with.
+    private String uri;
+    private Properties properties;
 
-    protected StatementCache<BlockLookupRecord, BlockRecord> blockLookupCache;
-    protected StatementCache<DeathLookupRecord, DeathRecord> deathLookupCache;
-    protected StatementCache<InventoryLookupRecord, InventoryRecord> inventoryLookupCache;
+    // Lookup caches of the writer connection, only used when there are no readers.
+    protected LookupCaches lookupCaches;
+    private LookupPool readers;
+    // The amount of prepared handlers each statement cache holds per connection.
+    protected int statementCacheSize = 32;
+    // Only set when either the lookup cache or prefetching is enabled.
+    private DirtyPositions dirty;
+    // Only set when lookupCacheSize is above 0.
+    private LookupResultCache lookupResults;
+    // Only set when prefetchChunks is above 0 and there are readers to load with.
+    private RegionPrefetch prefetch;
+    // The drain of the queue that the pending records were taken from.
+    private long drained;
 
     protected PreparedStatement
             insertBlocks, insertDeaths, insertItems,
             getElseInsertUser, getElseInsertBlock, getElseInsertWorld, getUsername;
     protected final ReentrantLock databaseLock = new ReentrantLock();
 
-    private final Queue<PlymouthRecord> queue = new ConcurrentLinkedQueue<>();
+    private RecordRingBuffer queue;
+    private FlushScheduler flushes;
+    // Only set when coalesceMillis is above 0.
+    private BlockCoalescer coalescer;
+    private OverflowPolicy overflowPolicy;
+    private long overflowBlockNanos;
+    private RecordSpool spool;
+    private final AtomicLongArray dropped = new AtomicLongArray(RecordType.values().length);
+    private final AtomicLong spilled = new AtomicLong();
+    private long reportedDrops, lastDropReport;
+    private final AtomicLong commits = new AtomicLong(), committedRows = new AtomicLong(), rollbacks = new AtomicLong(), reconnects = new AtomicLong();
+    private int flushRetries;
+    private RecordJournal journal;
+    // Set once initializeDatabase completes; records are only buffered in the queue until then.
+    private volatile boolean ready;
+    // Set while the database is unreachable or the journal has yet to be replayed. Records are only journaled while set.
+    private boolean offline;
+    private long nextProbe, reconnectDelay, reconnectMinNanos, reconnectMaxNanos;
+    private long nextHealthCheck, healthCheckNanos;
+    // Insertable records drained this flush, batched after their dictionary entries are resolved.
+    private final List<PlymouthRecord> pending = new ArrayList<>();
 
     protected PlymouthSQL(Driver driver) {
         this.driver = driver;
+        configureQueue(new Properties());
+        configureJournal(new Properties());
+        configureReconnect(new Properties());
     }
 
+    /**
+     * Sets up everything but the connection, which is left to {@link #startConnection()} as part of
+     * {@link #initializeDatabase()}. Records may be queued in the meantime.
+     */
     protected PlymouthSQL(Driver driver, String uri, Properties properties) throws PlymouthException {
-        this(driver);
-        startConnection(uri, properties);
+        this.driver = driver;
+        this.uri = uri;
+        this.properties = properties;
+        configureQueue(properties);
+        configureJournal(properties);
+        configureReconnect(properties);
+        configureReaders(uri, properties);
+        configureLookupCaching(properties);
+    }
+
+    /**
+     * Sets up the queue from the following properties.
+     * <ul>
+     *     <li><code>queueCapacity</code> - How many records may be queued at once. Defaults to 65536.</li>
+     *     <li><code>queueOverflow</code> - The {@link OverflowPolicy} to apply when the queue is full. Defaults to spill.</li>
+     *     <li><code>queueBlockMillis</code> - How long the block policy may block the producer for. Defaults to 50.</li>
+     *     <li><code>flushRetries</code> - How many times a record failing by itself is retried before it's discarded. Defaults to 2.</li>
+     *     <li><code>coalesceMillis</code> - How long block records are held to be coalesced. Defaults to 0, disabling it.</li>
+     * </ul>
+     */
+    private void configureQueue(Properties properties) {
+        this.queue = new RecordRingBuffer(Integer.parseInt(properties.getProperty("queueCapacity", "65536")));
+        this.flushes = new FlushScheduler(properties, DatabaseHelper::requestFlush);
+        this.flushRetries = Integer.parseInt(properties.getProperty("flushRetries", "2"));
+        long coalesceMillis = Long.parseLong(properties.getProperty("coalesceMillis", "0"));
+        if (coalesceMillis > 0) this.coalescer = new BlockCoalescer(TimeUnit.MILLISECONDS.toNanos(coalesceMillis));
+        this.overflowPolicy = OverflowPolicy.of(properties.getProperty("queueOverflow"));
+        this.overflowBlockNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(properties.getProperty("queueBlockMillis", "50")));
+        if (overflowPolicy == OverflowPolicy.SPILL) try {
+            this.spool = new RecordSpool(DatabaseHelper.data.resolve("spill.bin"));
+        } catch (IOException ioe) {
+            log.error("Failed to open the spill file, falling back to dropping records.", ioe);
+            this.overflowPolicy = OverflowPolicy.DROP;
+        }
+    }
+
+    /**
+     * Opens the journal unless <code>journal</code> is set to false.
+     * If the last session left records behind, they are replayed before anything new is sent.
+     */
+    private void configureJournal(Properties properties) {
+        if (!Boolean.parseBoolean(properties.getProperty("journal", "true"))) return;
+        try {
+            this.journal = new RecordJournal(DatabaseHelper.data.resolve("journal.bin"));
+            this.offline = !journal.isEmpty();
+        } catch (IOException ioe) {
+            log.error("Failed to open the journal, records will be lost if the database goes down.", ioe);
+        }
+    }
+
+    /**
+     * Sets up reconnecting from the following properties.
+     * <ul>
+     *     <li><code>reconnectMinMillis</code> - How long to wait before retrying a failed reconnect. Defaults to 1000.</li>
+     *     <li><code>reconnectMaxMillis</code> - How long the wait may double up to with each failure. Defaults to 60000.</li>
+     *     <li><code>healthCheckMillis</code> - How long the connection may sit idle before it's tested. Defaults to 30000, 0 disables it.</li>
+     * </ul>
+     */
+    private void configureReconnect(Properties properties) {
+        this.reconnectMinNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(properties.getProperty("reconnectMinMillis", "1000")));
+        this.reconnectMaxNanos = Math.max(reconnectMinNanos, TimeUnit.MILLISECONDS.toNanos(Long.parseLong(properties.getProperty("reconnectMaxMillis", "60000"))));
+        this.healthCheckNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(properties.getProperty("healthCheckMillis", "30000")));
+        this.reconnectDelay = reconnectMinNanos;
+        this.nextHealthCheck = System.nanoTime() + healthCheckNanos;
+    }
+
+    /**
+     * Sets up the reader connections from <code>readerConnections</code>, defaulting to 2.
+     * Setting it to 0 runs lookups on the writer connection between batches.
+     * The statements held per connection are bounded by <code>statementCacheSize</code>, defaulting to 32.
+     */
+    private void configureReaders(String uri, Properties properties) {
+        this.statementCacheSize = Integer.parseInt(properties.getProperty("statementCacheSize", "32"));
+        int size = Integer.parseInt(properties.getProperty("readerConnections", "2"));
+        if (size > 0) this.readers = new LookupPool(driver, uri, properties, size, this::createLookupCaches);
+    }
+
+    /**
+     * Sets up answering the inspector's lookups locally from the following properties.
+     * <ul>
+     *     <li><code>lookupCacheSize</code> - How many positions to hold results for. Defaults to 256, 0 disables it.</li>
+     *     <li><code>lookupCacheMillis</code> - How long results are held for. Defaults to 5000.</li>
+     *     <li><code>prefetchChunks</code> - How many chunks around inspectors to hold history for. Defaults to 256, 0 disables it.</li>
+     *     <li><code>prefetchRadius</code> - The radius of chunks around an inspector to load. Defaults to 2.</li>
+     *     <li><code>prefetchRecords</code> - How many records to hold per chunk and type. Defaults to 4096.</li>
+     * </ul>
+     * Prefetching requires reader connections to load with.
+     */
+    private void configureLookupCaching(Properties properties) {
+        int size = Integer.parseInt(properties.getProperty("lookupCacheSize", "256"));
+        long ttl = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(properties.getProperty("lookupCacheMillis", "5000")));
+        int chunks = Integer.parseInt(properties.getProperty("prefetchChunks", "256"));
+        boolean caching = size > 0 && ttl > 0, prefetching = chunks > 0 && readers != null;
+        if (!caching && !prefetching) return;
+        // Every dirty position has a record in flight, so anything past what the queue holds is likely from being offline.
+        this.dirty = new DirtyPositions(queue.capacity());
+        if (caching) this.lookupResults = new LookupResultCache(dirty, size, ttl);
+        if (prefetching) {
+            int radius = Math.max(0, Integer.parseInt(properties.getProperty("prefetchRadius", "2")));
+            int records = Math.max(1, Integer.parseInt(properties.getProperty("prefetchRecords", "4096")));
+            this.prefetch = new RegionPrefetch(dirty, readers::submit, radius, chunks, records, coalescer == null);
+        }
     }
 
     public void startConnection(String uri, Properties properties) throws PlymouthException {
+        this.uri = uri;
+        this.properties = properties;
         try {
             this.connection = driver.connect(uri, properties);
             connection.isClosed();
@@ -76,110 +218,738 @@ public abstract class PlymouthSQL implements Plymouth, SqlConnectionProvider {
         }
     }
 
+    /**
+     * Connects with the URI and properties given at construction.
+     *
+     * @throws PlymouthException If the connection cannot be opened.
+     */
+    protected void startConnection() throws PlymouthException {
+        startConnection(uri, properties);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Records are journaled as they would be with the connection lost, and {@link #initializeDatabase()} is retried
+     * with the same backoff as reconnecting.
+     */
+    @Override
+    public boolean initializeLater(PlymouthException cause) {
+        lostConnection();
+        return true;
+    }
+
+    /**
+     * Marks the database as ready, letting lookups go to the readers. Called at the end of {@link #initializeDatabase()}.
+     */
+    protected void ready() {
+        ready = true;
+        log.info("Database is ready, {} records were buffered while starting, {} spilled to disk.", queue.size(), spilled.get());
+        warmUp();
+    }
+
+    /**
+     * Compiles the lookup handlers for the common lookups in the background, so the first of each doesn't have to.
+     * The caches used are thrown away, as the compiled handlers are shared by every cache.
+     */
+    private void warmUp() {
+        var thread = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                createLookupCaches(this).warmUp();
+                log.info("Warmed up lookups in {}ms.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (PlymouthException pe) {
+                log.warn("Failed to warm up lookups, they'll be compiled on first use instead.", pe);
+            }
+        }, "Plymouth Warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return true once the database has been initialized.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
     public Connection getConnection() {
         return connection;
     }
 
     /**
      * {@inheritDoc}
-     *
-     * @implNote This method may block as it has to synchronise on {@link #inventoryDeltaTable} to ensure integrity.
-     * This also includes iterating over the table and executing requests and clearing up empty maps.
+     * <p>
+     * Only once ready, and only if prefetching is enabled.
+     */
+    @Override
+    public void prefetch(ServerWorld world, BlockPos pos) {
+        if (prefetch != null && ready) prefetch.prefetch(world, pos);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Nothing is sent until the {@link FlushScheduler} deems a flush due.
      */
     @Override
     public void sendBatches() {
-        // This determines if we should continue on to finish off batch requests from inventories.
-        boolean f = false;
-        // Test if we should process the inventory delta table. If so, synchronise.
-        if ((ticks++ & 127) == 0) synchronized (inventoryDeltaTable) {
-            var i0 = inventoryDeltaTable.entrySet().iterator();
-            while (i0.hasNext()) {
-                var entry = i0.next();
-                var v0 = entry.getValue();
-                // We don't remove right away, but rather wait a moment before clearing, in case it gets reused immediately.
-                if (v0.isEmpty()) {
-                    i0.remove();
-                    continue;
-                }
-                var itr3 = v0.entrySet().iterator();
-                while (itr3.hasNext()) {
-                    var e3 = itr3.next();
-                    var v3 = e3.getValue();
-                    // Same reasoning as before; we wait in case it gets reused immediately.
-                    if (v3.isEmpty()) {
-                        itr3.remove();
-                        continue;
-                    }
-                    var itr2 = Object2ObjectMaps.fastIterator(v3);
-                    while (itr2.hasNext()) {
-                        var entry2 = itr2.next();
-                        var record = entry2.getValue();
-                        try {
-                            handleInventoryRecord(record);
-                            f = true;
-                        } catch (IllegalStateException | NullPointerException | PlymouthException | SQLException exception) {
-                            log.error("Failed to add record {} to batch.\n{}", record, insertItems, exception);
-                        }
-                        itr2.remove();
-                    }
-                }
-            }
+        long now = System.nanoTime();
+        boolean due = flushes.isDue(now);
+        if (due) {
+            // Anything pending from here on is accounted towards the next flush.
+            flushes.begin();
+            inventoryDeltas.drain(this::stage);
+        }
+        // Released outside of a flush, the records wait in pending for the next one.
+        if (coalescer != null && coalescer.release(now, this::stage) != 0 && !due) flushes.pending(RecordType.BLOCK);
+        reportDrops();
+        if (!offline && healthCheckNanos > 0 && now - nextHealthCheck >= 0 && !isConnectionValid()) {
+            lostConnection();
+            log.error("Lost connection to the database while idle, reconnecting.");
         }
-        if (f || !queue.isEmpty()) {
+        boolean replayed = offline && probe();
+        if (due || replayed || spool != null && spool.hasPending()) {
+            if (dirty != null) drained = dirty.drain();
             PlymouthRecord r;
-            PreparedStatement lastStatement = null;
-            while ((r = queue.poll()) != null) try {
-                switch (r.getType()) {
-                    case BLOCK:
-                        lastStatement = insertBlocks;
-                        handleBlockRecord((BlockRecord) r);
-                        break;
-                    case DEATH:
-                        lastStatement = insertDeaths;
-                        handleDeathRecord((DeathRecord) r);
-                        break;
-                    case INVENTORY:
-                        lastStatement = insertItems;
-                        handleInventoryRecord((InventoryRecord) r);
-                        break;
-                    case LOOKUP_BLOCK:
-                        blockLookupCache.handle((BlockLookupRecord) r);
-                        break;
-                    case LOOKUP_DEATH:
-                        deathLookupCache.handle((DeathLookupRecord) r);
-                        break;
-                    case LOOKUP_INVENTORY:
-                        inventoryLookupCache.handle((InventoryLookupRecord) r);
-                    default:
-                        log.warn("Unknown type {} for record {}.", r.getType(), r);
-                }
-            } catch (IllegalStateException | NullPointerException | PlymouthException | SQLException exception) {
-                if (r instanceof CompletableRecord<?> completable) completable.fail(exception);
-                log.error("Failed to add record {} to batch.\n{}", r, lastStatement, exception);
+            while ((r = queue.poll()) != null) process(r);
+            // Spilled records are only pulled in once the queue has been drained to keep the flush bounded.
+            if (spool != null) spool.drain(queue.capacity(), this::process);
+            if (offline) {
+                pending.clear();
+                return;
             }
             try {
-                insertBlocks.executeBatch();
-            } catch (SQLException exception) {
-                log.error("Failed to send batch.\n{}", insertBlocks, exception);
+                resolveDictionaries(pending);
+            } catch (PlymouthException exception) {
+                log.warn("Failed to resolve dictionaries ahead of time, resolving per record.", exception);
+            }
+            if (!pending.isEmpty()) flush();
+            pending.clear();
+        }
+    }
+
+    /**
+     * Sends the pending records as a single transaction. If the transaction fails while the connection is fine, it's
+     * rolled back and the records are bisected, each half being sent as its own transaction, until only the records
+     * failing by themselves are left. Those are retried up to <code>flushRetries</code> times before being discarded,
+     * so a bad record only loses itself.
+     * As every transaction either commits entirely or not at all, and the journal is rewritten to only hold what has yet
+     * to commit when the connection is lost midway, replaying the journal never duplicates rows.
+     */
+    private void flush() {
+        // Everything that is about to be sent must be on disk first.
+        if (journal != null) journal.sync();
+        int size = pending.size(), discarded;
+        var exception = commit(0, size);
+        if (exception == null) {
+            discarded = 0;
+        } else if (!isConnectionValid()) {
+            lostConnection(exception, 0);
+            return;
+        } else {
+            if (size != 1) log.warn("Failed to send batch of {} records, bisecting it to find the failing records.", size, exception);
+            if ((discarded = size == 1 ? retry(0, exception) : bisect(0, size)) < 0) return;
+        }
+        if (dirty != null) dirty.committed(drained);
+        if (journal != null) journal.acknowledge();
+        if (discarded != 0) log.error("Discarded {} of {} records as they failed to send.", discarded, size);
+    }
+
+    /**
+     * Sends each half of the range as its own transaction, bisecting again any half that fails.
+     *
+     * @return The amount of records discarded, or -1 if the connection was lost.
+     */
+    private int bisect(int from, int to) {
+        int mid = (from + to) >>> 1, discarded = 0;
+        for (int[] half : new int[][]{{from, mid}, {mid, to}}) {
+            var exception = commit(half[0], half[1]);
+            if (exception == null) continue;
+            if (!isConnectionValid()) {
+                lostConnection(exception, half[0]);
+                return -1;
             }
+            int lost = half[1] - half[0] == 1 ? retry(half[0], exception) : bisect(half[0], half[1]);
+            if (lost < 0) return -1;
+            discarded += lost;
+        }
+        return discarded;
+    }
+
+    /**
+     * Sends the record by itself up to <code>flushRetries</code> times, having failed by itself once already.
+     *
+     * @return 1 if the record was discarded, 0 if it was sent, or -1 if the connection was lost.
+     */
+    private int retry(int index, SQLException exception) {
+        var record = pending.get(index);
+        for (int attempt = 1; attempt <= flushRetries; attempt++) {
+            log.warn("Failed to send record {}, retrying ({}/{}).", record, attempt, flushRetries, exception);
+            if ((exception = commit(index, index + 1)) == null) return 0;
+            if (!isConnectionValid()) {
+                lostConnection(exception, index);
+                return -1;
+            }
+        }
+        // The connection is fine, so the record itself is bad; replaying it would only fail again.
+        log.error("Failed to send record {} after {} attempts, discarding it.", record, flushRetries + 1, exception);
+        if (prefetch != null) prefetch.forget(record);
+        return 1;
+    }
+
+    /**
+     * Batches then commits a range of the pending records.
+     *
+     * @return null if committed, else why the transaction failed, having been rolled back.
+     */
+    private SQLException commit(int from, int to) {
+        for (int i = from; i < to; i++) batch(pending.get(i));
+        long start = System.nanoTime();
+        try {
+            long rows = commitBatches();
+            long elapsed = System.nanoTime() - start;
+            flushes.committed(elapsed);
+            commits.incrementAndGet();
+            committedRows.addAndGet(rows);
+            nextHealthCheck = System.nanoTime() + healthCheckNanos;
+            if (log.isDebugEnabled()) log.debug("Committed {} rows in {}µs.", rows, elapsed / 1000L);
+            return null;
+        } catch (SQLException exception) {
+            rollbacks.incrementAndGet();
+            return exception;
+        }
+    }
+
+    /**
+     * Takes the database offline after losing the connection midway through a flush. Anything pending from the given
+     * index on has yet to commit, so the journal is rewritten to hold only those, as everything before has committed.
+     */
+    private void lostConnection(SQLException exception, int from) {
+        lostConnection();
+        int remaining = pending.size() - from;
+        if (journal == null) {
+            log.error("Lost connection to the database, discarding {} records.", remaining, exception);
+            return;
+        }
+        if (from != 0) {
+            journal.acknowledge();
+            for (int i = from; i < pending.size(); i++) journal.append(pending.get(i));
+            journal.sync();
+        }
+        log.error("Lost connection to the database, journaling {} records until it's back.", remaining, exception);
+    }
+
+    /**
+     * Executes the batches within a single transaction, holding {@link #databaseLock} so nothing else
+     * can use the connection mid-transaction.
+     *
+     * @return The amount of rows committed.
+     * @throws SQLException If the transaction failed, having been rolled back.
+     */
+    private long commitBatches() throws SQLException {
+        databaseLock.lock();
+        try {
+            connection.setAutoCommit(false);
+            long rows = executeBatches();
+            connection.commit();
+            committed();
+            return rows;
+        } catch (SQLException exception) {
             try {
-                insertDeaths.executeBatch();
-            } catch (SQLException exception) {
-                log.error("Failed to send batch.\n{}", insertDeaths, exception);
+                connection.rollback();
+            } catch (SQLException rollback) {
+                exception.addSuppressed(rollback);
             }
+            rolledBack();
+            throw exception;
+        } finally {
             try {
-                insertItems.executeBatch();
+                connection.setAutoCommit(true);
+            } catch (SQLException exception) {
+                log.debug("Failed to restore autocommit.", exception);
+            }
+            databaseLock.unlock();
+        }
+    }
+
+    /**
+     * Takes the database offline, reconnecting as soon as the next flush runs.
+     */
+    private void lostConnection() {
+        offline = true;
+        nextProbe = System.nanoTime();
+        reconnectDelay = reconnectMinNanos;
+    }
+
+    /**
+     * Tests if the database is back, reconnecting if the connection is dead, or initializing it if that had failed
+     * to reach the database at start, then replays the journal into the pending records.
+     * Failed reconnects are retried with exponential backoff.
+     * Worlds can only be resolved once a record has been journaled this session, so replay waits until then.
+     *
+     * @return true if the journal was replayed.
+     */
+    private boolean probe() {
+        long now = System.nanoTime();
+        if (now - nextProbe < 0) return false;
+        if (ready ? !isConnectionValid() && !reconnect() : !reinitialize()) {
+            nextProbe = now + reconnectDelay;
+            reconnectDelay = Math.min(reconnectDelay << 1, reconnectMaxNanos);
+            return false;
+        }
+        reconnectDelay = reconnectMinNanos;
+        nextHealthCheck = now + healthCheckNanos;
+        if (journal == null) {
+            offline = false;
+            log.info("Database is available.");
+            return false;
+        }
+        if (!RecordCodec.canDecode()) {
+            nextProbe = now + reconnectMinNanos;
+            return false;
+        }
+        offline = false;
+        int replayed = journal.replay(pending::add);
+        log.info("Database is available, replaying {} journaled records.", replayed);
+        return true;
+    }
+
+    /**
+     * Replaces the connection with a new one, closing the old along with every statement prepared on it.
+     * Statements of the writer connection are prepared again by {@link #reconnected()}.
+     *
+     * @return true if connected and everything was prepared again.
+     */
+    private boolean reconnect() {
+        databaseLock.lock();
+        try {
+            var old = connection;
+            if (old != null) try {
+                old.close();
             } catch (SQLException exception) {
-                log.error("Failed to send batch.\n{}", insertItems, exception);
+                log.debug("Failed to close the dead connection.", exception);
             }
+            if (lookupCaches != null) lookupCaches.reload();
+            connection = driver.connect(uri, properties);
+            try {
+                reconnected();
+            } catch (SQLException | PlymouthException exception) {
+                // Left closed so that the next probe tries again from scratch.
+                connection.close();
+                throw exception;
+            }
+            reconnects.incrementAndGet();
+            log.info("Reconnected to the database.");
+            return true;
+        } catch (SQLException | PlymouthException exception) {
+            log.warn("Failed to reconnect to the database, retrying in {}ms.", TimeUnit.NANOSECONDS.toMillis(reconnectDelay), exception);
+            return false;
+        } finally {
+            databaseLock.unlock();
         }
     }
 
+    /**
+     * Retries {@link #initializeDatabase()} after it failed to reach the database, closing whatever connection the
+     * last attempt left behind. Any other failure is handled as a failed bootstrap.
+     *
+     * @return true if the database was initialized.
+     */
+    private boolean reinitialize() {
+        if (connection != null) try {
+            connection.close();
+        } catch (SQLException exception) {
+            log.debug("Failed to close the dead connection.", exception);
+        }
+        // Anything it prepared went along with the connection.
+        lookupCaches = null;
+        try {
+            initializeDatabase();
+            return true;
+        } catch (PlymouthException exception) {
+            if (exception.requiresIntervention() || !exception.isConnectionFailure()) {
+                DatabaseHelper.bootstrapFailed(exception);
+            } else {
+                log.warn("Failed to initialize the database, retrying in {}ms.", TimeUnit.NANOSECONDS.toMillis(reconnectDelay), exception);
+            }
+            return false;
+        } catch (RuntimeException | LinkageError error) {
+            DatabaseHelper.bootstrapFailed(error);
+            return false;
+        }
+    }
+
+    private boolean isConnectionValid() {
+        try {
+            return connection != null && connection.isValid(5);
+        } catch (SQLException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Journals the record and sets it aside to be batched.
+     *
+     * @param r The insertable record to stage.
+     */
+    private void stage(PlymouthRecord r) {
+        if (journal(r)) pending.add(r);
+    }
+
+    /**
+     * Writes the record to the journal, if enabled.
+     *
+     * @param r The record to journal.
+     * @return true if the record should also be batched, false if the database is unavailable.
+     */
+    private boolean journal(PlymouthRecord r) {
+        if (journal != null) journal.append(r);
+        return !offline;
+    }
+
+    /**
+     * Adds the insertable record to the current batch.
+     *
+     * @param r The record to add.
+     */
+    private void batch(PlymouthRecord r) {
+        PreparedStatement lastStatement = null;
+        try {
+            switch (r.getType()) {
+                case BLOCK:
+                    lastStatement = insertBlocks;
+                    handleBlockRecord((BlockRecord) r);
+                    break;
+                case DEATH:
+                    lastStatement = insertDeaths;
+                    handleDeathRecord((DeathRecord) r);
+                    break;
+                case INVENTORY:
+                    lastStatement = insertItems;
+                    handleInventoryRecord((InventoryRecord) r);
+                    break;
+                default:
+                    log.warn("Cannot batch type {} for record {}.", r.getType(), r);
+            }
+        } catch (IllegalStateException | NullPointerException | PlymouthException | SQLException exception) {
+            log.error("Failed to add record {} to batch.\n{}", r, lastStatement, exception);
+        }
+    }
+
+    /**
+     * Sets the record aside to be batched, holding block records to be coalesced if enabled, or runs it if it's a lookup.
+     *
+     * @param r The record to process.
+     */
+    private void process(PlymouthRecord r) {
+        try {
+            switch (r.getType()) {
+                case BLOCK:
+                    if (coalescer != null) coalescer.add((BlockRecord) r, this::stage);
+                    else stage(r);
+                    break;
+                case DEATH:
+                case INVENTORY:
+                    stage(r);
+                    break;
+                case LOOKUP_BLOCK:
+                case LOOKUP_DEATH:
+                case LOOKUP_INVENTORY:
+                    if (lookupCaches == null) lookupCaches = createLookupCaches(this);
+                    lookupCaches.handle(r);
+                    break;
+                default:
+                    log.warn("Unknown type {} for record {}.", r.getType(), r);
+            }
+        } catch (IllegalStateException | NullPointerException | PlymouthException exception) {
+            if (r instanceof CompletableRecord<?> completable) completable.fail(exception);
+            log.error("Failed to process record {}.", r, exception);
+        }
+    }
+
+    /**
+     * Warns about any records dropped since the last report, at most once every ten seconds.
+     */
+    private void reportDrops() {
+        long drops = getDroppedRecords(), now = System.nanoTime();
+        if (drops != reportedDrops && now - lastDropReport >= TimeUnit.SECONDS.toNanos(10)) {
+            log.warn("Queue saturated: dropped {} records since the last report, {} in total. Depth: {}/{}, spilled: {}.",
+                    drops - reportedDrops, drops, queue.size(), queue.capacity(), spilled.get());
+            reportedDrops = drops;
+            lastDropReport = now;
+        }
+    }
+
+    /**
+     * Resolves the dictionary entries the records refer to in bulk, so batching them needs no round trips.
+     * Anything left unresolved is resolved one at a time as the records are batched.
+     *
+     * @param records The records about to be batched.
+     * @throws PlymouthException If resolving fails.
+     */
+    protected void resolveDictionaries(List<PlymouthRecord> records) throws PlymouthException {
+    }
+
+    /**
+     * Called once the connection has been replaced, while holding {@link #databaseLock}.
+     * Every statement of the writer connection must be prepared again, and any dictionary caches warmed back up.
+     *
+     * @throws SQLException      If preparing fails.
+     * @throws PlymouthException If warming the caches fails.
+     */
+    protected void reconnected() throws SQLException, PlymouthException {
+    }
+
+    /**
+     * Called when a flush has been committed, while still holding {@link #databaseLock}.
+     */
+    protected void committed() {
+    }
+
+    /**
+     * Called when a flush has been rolled back. Anything cached as inserted by the connection during
+     * the transaction may no longer exist, and should be forgotten.
+     */
+    protected void rolledBack() {
+    }
+
+    /**
+     * Sends all pending inserts to the database, within the transaction of the flush.
+     * Stops at the first failure as the transaction is aborted from there on, but every batch is cleared regardless.
+     *
+     * @return The amount of rows sent.
+     * @throws SQLException If any batch failed.
+     */
+    protected long executeBatches() throws SQLException {
+        var statements = new PreparedStatement[]{insertBlocks, insertDeaths, insertItems};
+        long rows = 0;
+        int i = 0;
+        try {
+            for (; i < statements.length; i++) rows += statements[i].executeBatch().length;
+        } catch (SQLException exception) {
+            while (++i < statements.length) try {
+                statements[i].clearBatch();
+            } catch (SQLException clear) {
+                exception.addSuppressed(clear);
+            }
+            throw exception;
+        }
+        return rows;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the queue is full, the configured {@link OverflowPolicy} is applied.
+     * Lookups that cannot be queued are failed immediately rather than being spilled.
+     * Inspector lookups may be answered from the prefetched chunks or the lookup cache,
+     * both of which any other record updates by position. The prefetched chunks are only updated once the record
+     * has been queued, so that they never show history that won't reach the database.
+     */
     @Override
     public void queue(PlymouthRecord record) {
-        queue.offer(record);
+        if (record instanceof LookupRecord<?> lookup) {
+            if (prefetch != null && prefetch.offer(lookup)) return;
+            if (lookupResults != null && lookupResults.offer(lookup)) return;
+        } else {
+            if (lookupResults != null) lookupResults.invalidate(record);
+        }
+        // Lookups skip the queue entirely when there are readers to take them,
+        // but wait in the queue behind the bootstrap as the schema may still be migrating.
+        if (readers != null && ready && record instanceof LookupRecord<?> lookup) {
+            readers.submit(lookup);
+            return;
+        }
+        boolean insert = !(record instanceof LookupRecord);
+        if (enqueue(record)) {
+            if (insert && prefetch != null) prefetch.record(record);
+            flushes.pending(record.getType());
+            return;
+        }
+        if (insert && prefetch != null) prefetch.forget(record);
+        dropped.incrementAndGet(record.getType().ordinal());
+        if (record instanceof CompletableRecord<?> completable) {
+            completable.fail(new RejectedExecutionException("Queue is saturated at " + queue.capacity() + " records."));
+        }
+    }
+
+    /**
+     * Offers the record to the queue, applying the overflow policy if it's full.
+     *
+     * @param record The record to queue.
+     * @return true if queued or spilled, false if dropped.
+     */
+    private boolean enqueue(PlymouthRecord record) {
+        switch (overflowPolicy) {
+            case DROP -> {
+                return queue.size() < OverflowPolicy.limit(queue.capacity(), OverflowPolicy.priority(record)) && queue.offer(record);
+            }
+            case BLOCK -> {
+                if (queue.offer(record)) return true;
+                long deadline = System.nanoTime() + overflowBlockNanos;
+                do {
+                    LockSupport.parkNanos(100_000L);
+                    if (queue.offer(record)) return true;
+                } while (System.nanoTime() - deadline < 0);
+                return false;
+            }
+            case SPILL -> {
+                if (queue.offer(record)) return true;
+                if (RecordCodec.canEncode(record) && spool.write(record)) {
+                    spilled.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The nanoseconds until the next flush is due.
+     */
+    @Override
+    public long nextFlushDelay() {
+        long now = System.nanoTime(), delay = flushes.nextDelay(now);
+        if (coalescer != null) delay = Math.min(delay, coalescer.nextDelay(now));
+        // Wakes up to probe or reconnect even when nothing is pending.
+        if (offline) return Math.min(delay, Math.max(nextProbe - now, 0L));
+        return healthCheckNanos > 0 ? Math.min(delay, Math.max(nextHealthCheck - now, 0L)) : delay;
+    }
+
+    /**
+     * @return The average time taken to commit a flush in nanoseconds.
+     */
+    public long getCommitLatency() {
+        return flushes.getLatency();
+    }
+
+    /**
+     * @return The amount of flushes committed, each being a single transaction.
+     */
+    public long getCommits() {
+        return commits.get();
+    }
+
+    /**
+     * @return The amount of rows committed across all flushes.
+     */
+    public long getCommittedRows() {
+        return committedRows.get();
     }
 
+    /**
+     * @return The amount of flushes rolled back, including those later retried successfully.
+     */
+    public long getRollbacks() {
+        return rollbacks.get();
+    }
+
+    /**
+     * @return The amount of times the writer connection has been replaced after being lost.
+     */
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    /**
+     * @return The amount of lookups that found their statement already prepared on their connection.
+     */
+    public long getStatementCacheHits() {
+        return StatementCache.getHits();
+    }
+
+    /**
+     * @return The amount of lookups that had to prepare their statement.
+     */
+    public long getStatementCacheMisses() {
+        return StatementCache.getMisses();
+    }
+
+    /**
+     * @return The total time spent compiling lookup handlers in nanoseconds.
+     */
+    public long getStatementCompileNanos() {
+        return StatementCache.getCompileNanos();
+    }
+
+    /**
+     * @return The amount of inspector lookups answered from the lookup cache.
+     */
+    public long getLookupCacheHits() {
+        return lookupResults == null ? 0L : lookupResults.getHits();
+    }
+
+    /**
+     * @return The amount of inspector lookups that had to go to the database.
+     */
+    public long getLookupCacheMisses() {
+        return lookupResults == null ? 0L : lookupResults.getMisses();
+    }
+
+    /**
+     * @return The amount of inspector lookups answered from the prefetched chunks.
+     */
+    public long getPrefetchHits() {
+        return prefetch == null ? 0L : prefetch.getHits();
+    }
+
+    /**
+     * @return The amount of block records collapsed away by coalescing.
+     */
+    public long getCoalescedRecords() {
+        return coalescer == null ? 0L : coalescer.getCoalesced();
+    }
+
+    /**
+     * @return The amount of records currently waiting in the queue.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return The maximum amount of records the queue can hold.
+     */
+    public int getQueueCapacity() {
+        return queue.capacity();
+    }
+
+    /**
+     * @param type The type of record to get the drop count of.
+     * @return The amount of records of the given type dropped due to the queue being saturated.
+     */
+    public long getDroppedRecords(RecordType type) {
+        return dropped.get(type.ordinal());
+    }
+
+    /**
+     * @return The total amount of records dropped due to the queue being saturated.
+     */
+    public long getDroppedRecords() {
+        long total = 0;
+        for (int i = 0, l = dropped.length(); i < l; i++) total += dropped.get(i);
+        return total;
+    }
+
+    /**
+     * @return The total amount of records spilled to disk due to the queue being saturated.
+     */
+    public long getSpilledRecords() {
+        return spilled.get();
+    }
+
+    /**
+     * Creates the lookup caches for a connection. Each reader connection has its own,
+     * as statements cannot be shared between connections.
+     *
+     * @param connection The connection to prepare the statements on.
+     * @return The lookup caches bound to the connection.
+     * @throws PlymouthException If the caches cannot be created.
+     */
+    protected abstract LookupCaches createLookupCaches(SqlConnectionProvider connection) throws PlymouthException;
+
     /**
      * Inserts a block record into the database.
      *
@@ -269,36 +1039,21 @@ public abstract class PlymouthSQL implements Plymouth, SqlConnectionProvider {
      * @param mutator   The mutator of the inventory.
      * @param reference The stack for reference. A copy treated as immutable will be created.
      * @param delta     How much was added or removed from the inventory.
-     * @implNote This method may block as it has to synchronise on {@link #inventoryDeltaTable} to ensure integrity.
      */
     private void inventoryDelta(TargetRecord inventory, TargetRecord mutator, ItemStack reference, int delta) {
         // The following three assertions are for dev-time to detect where the accidental insertion of air or 0 are coming from.
         assert delta != 0 : "No delta.";
         assert reference != null && !reference.isEmpty() : "Air got in the system.";
         assert !(reference.getItem() instanceof BlockItem blockItem && blockItem.getBlock().getDefaultState().isAir()) : "Unusual air got in the system.";
-        synchronized (inventoryDeltaTable) {
-            var map = getRecordMap(inventory, mutator);
-            var record = map.get(reference);
-            if (record == null) {
-                var immutable = immutable(reference);
-                record = new InventoryRecord(mutator, inventory, immutable, delta);
-                map.put(immutable, record);
-            } else {
-                record.delta += delta;
-            }
+        if (lookupResults != null) {
+            lookupResults.invalidate(inventory.world, inventory.pos);
+            lookupResults.invalidate(mutator.world, mutator.pos);
         }
-    }
-
-    /**
-     * Fetches or creates an ItemStack to Record map based off of the inventory and mutator.
-     *
-     * @param inventory The inventory to base the first fetch off of.
-     * @param mutator   The mutator to base the second fetch off of.
-     * @return The hashmap tuned for item stacks.
-     */
-    private Map<ItemStack, InventoryRecord> getRecordMap(TargetRecord inventory, TargetRecord mutator) {
-        return inventoryDeltaTable.computeIfAbsent(inventory, $ -> new HashMap<>())
-                .computeIfAbsent(mutator, $ -> new Object2ObjectOpenCustomHashMap<>(ItemStackHasher.INSTANCE));
+        if (prefetch != null) {
+            prefetch.inventory(inventory.world, inventory.pos);
+            prefetch.inventory(mutator.world, mutator.pos);
+        }
+        if (inventoryDeltas.add(inventory, mutator, reference, delta, this::immutable)) flushes.pending(RecordType.INVENTORY);
     }
 
     /**
@@ -320,4 +1075,47 @@ public abstract class PlymouthSQL implements Plymouth, SqlConnectionProvider {
         c.setCount(1);
         return immutablesCache[h] = c;
     }
+
+    /**
+     * The lookup caches bound to a single connection.
+     */
+    protected record LookupCaches(StatementCache<BlockLookupRecord, BlockRecord> blocks,
+                                  StatementCache<DeathLookupRecord, DeathRecord> deaths,
+                                  StatementCache<InventoryLookupRecord, InventoryRecord> inventories) {
+        /**
+         * Runs the lookup, completing it with the results.
+         *
+         * @param r The lookup to run.
+         * @throws PlymouthException If the lookup fails.
+         */
+        void handle(PlymouthRecord r) throws PlymouthException {
+            switch (r.getType()) {
+                case LOOKUP_BLOCK -> blocks.handle((BlockLookupRecord) r);
+                case LOOKUP_DEATH -> deaths.handle((DeathLookupRecord) r);
+                case LOOKUP_INVENTORY -> inventories.handle((InventoryLookupRecord) r);
+                default -> throw new IllegalArgumentException("Not a lookup: " + r);
+            }
+        }
+
+        /**
+         * Compiles the handlers of the lookups most commonly ran, being those of the inspector and of area lookups
+         * from the command, with and without a time or cause.
+         */
+        void warmUp() throws PlymouthException {
+            int at = LookupRecord.FLAG_T_AT, area = LookupRecord.FLAG_T_AREA, seek = LookupRecord.FLAG_SEEK,
+                    time = LookupRecord.FLAG_MIN_TIME, cause = LookupRecord.FLAG_C_UID;
+            blocks.warmUp(at, at | seek, area, area | seek, area | time, area | cause, area | cause | time);
+            deaths.warmUp(area, area | seek, area | time, area | cause, area | cause | time);
+            inventories.warmUp(LookupRecord.FLAG_C_AT, LookupRecord.FLAG_C_AT | seek, area, area | seek, area | time, area | cause, area | cause | time);
+        }
+
+        /**
+         * Closes all prepared statements, for when the connection has been replaced.
+         */
+        void reload() throws PlymouthException {
+            blocks.reload();
+            deaths.reload();
+            inventories.reload();
+        }
+    }
 }
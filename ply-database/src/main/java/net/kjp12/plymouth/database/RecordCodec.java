@@ -0,0 +1,247 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T10:31:05
+
+import net.kjp12.plymouth.database.records.BlockRecord;
+import net.kjp12.plymouth.database.records.DeathRecord;
+import net.kjp12.plymouth.database.records.InventoryRecord;
+import net.kjp12.plymouth.database.records.PlymouthRecord;
+import net.minecraft.block.BlockState;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtHelper;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.util.registry.RegistryKey;
+import net.minecraft.world.World;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Binary codec for the insertable records, used for storing them on disk.
+ * <p>
+ * Worlds are stored by their registry key and resolved against the server the records came from,
+ * as such, decoding is only possible once at least one record has been encoded this session.
+ * Block states are stored as NBT to survive registry changes between sessions.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class RecordCodec {
+    private static final byte BLOCK = 0, DEATH = 1, INVENTORY = 2;
+
+    private static volatile MinecraftServer server;
+
+    private RecordCodec() {
+    }
+
+    /**
+     * @return true if worlds can be resolved, allowing records to be decoded.
+     */
+    static boolean canDecode() {
+        return server != null;
+    }
+
+    /**
+     * @param record The record to test.
+     * @return true if the record can be stored by this codec.
+     */
+    static boolean canEncode(PlymouthRecord record) {
+        return switch (record.getType()) {
+            case BLOCK, DEATH, INVENTORY -> true;
+            default -> false;
+        };
+    }
+
+    static void write(DataOutput out, PlymouthRecord record) throws IOException {
+        switch (record.getType()) {
+            case BLOCK -> {
+                var br = (BlockRecord) record;
+                out.writeByte(BLOCK);
+                writeInstant(out, br.time);
+                out.writeBoolean(br.isUndone);
+                writeWorld(out, br.causeWorld);
+                writePos(out, br.causePos);
+                writeString(out, br.userName);
+                writeUuid(out, br.userId);
+                writeUuid(out, br.entityId);
+                writeWorld(out, br.targetWorld);
+                writePos(out, br.targetPos);
+                out.writeByte(br.action.ordinal());
+                writeNbt(out, br.block == null ? null : NbtHelper.fromBlockState(br.block));
+                writeNbt(out, br.nbt);
+            }
+            case DEATH -> {
+                var dr = (DeathRecord) record;
+                out.writeByte(DEATH);
+                writeInstant(out, dr.time);
+                out.writeBoolean(dr.isUndone);
+                writeWorld(out, dr.causeWorld);
+                writePos(out, dr.causePos);
+                writeString(out, dr.causeName);
+                writeUuid(out, dr.causeUserId);
+                writeUuid(out, dr.causeEntityId);
+                writeWorld(out, dr.targetWorld);
+                writeVec(out, dr.targetPos);
+                writeString(out, dr.targetName);
+                writeUuid(out, dr.targetUserId);
+                writeUuid(out, dr.targetEntityId);
+            }
+            case INVENTORY -> {
+                var ir = (InventoryRecord) record;
+                out.writeByte(INVENTORY);
+                writeInstant(out, ir.time);
+                out.writeBoolean(ir.isUndone);
+                writeWorld(out, ir.causeWorld);
+                writePos(out, ir.causePos);
+                writeString(out, ir.causeName);
+                writeUuid(out, ir.causeUserId);
+                writeUuid(out, ir.causeEntityId);
+                writeWorld(out, ir.targetWorld);
+                writePos(out, ir.targetPos);
+                writeString(out, ir.targetName);
+                writeUuid(out, ir.targetUserId);
+                writeUuid(out, ir.targetEntityId);
+                out.writeUTF(Registry.ITEM.getId(ir.item).toString());
+                writeNbt(out, ir.nbt);
+                out.writeInt(ir.delta);
+                out.writeInt(ir.flags());
+            }
+            default -> throw new IllegalArgumentException("Cannot encode " + record);
+        }
+    }
+
+    static PlymouthRecord read(DataInput in) throws IOException {
+        var type = in.readByte();
+        switch (type) {
+            case BLOCK -> {
+                var time = readInstant(in);
+                var undone = in.readBoolean();
+                var causeWorld = readWorld(in);
+                var causePos = readPos(in);
+                var userName = readString(in);
+                var userId = readUuid(in);
+                var entityId = readUuid(in);
+                var targetWorld = readWorld(in);
+                var targetPos = readPos(in);
+                var action = BlockAction.values()[in.readByte()];
+                var state = readNbt(in);
+                BlockState block = state == null ? null : NbtHelper.toBlockState(state);
+                return new BlockRecord(time, undone, causeWorld, causePos, userName, userId, entityId, targetWorld, targetPos, action, block, readNbt(in));
+            }
+            case DEATH -> {
+                return new DeathRecord(readInstant(in), in.readBoolean(),
+                        readWorld(in), readPos(in), readString(in), readUuid(in), readUuid(in),
+                        readWorld(in), readVec(in), readString(in), readUuid(in), readUuid(in));
+            }
+            case INVENTORY -> {
+                var time = readInstant(in);
+                var undone = in.readBoolean();
+                var causeWorld = readWorld(in);
+                var causePos = readPos(in);
+                var causeName = readString(in);
+                var causeUserId = readUuid(in);
+                var causeEntityId = readUuid(in);
+                var targetWorld = readWorld(in);
+                var targetPos = readPos(in);
+                var targetName = readString(in);
+                var targetUserId = readUuid(in);
+                var targetEntityId = readUuid(in);
+                var item = Registry.ITEM.get(new Identifier(in.readUTF()));
+                var nbt = readNbt(in);
+                var delta = in.readInt();
+                var flags = in.readInt();
+                var stack = new ItemStack(item, 1);
+                stack.setTag(nbt);
+                return new InventoryRecord(causeWorld, causePos, causeName, causeUserId, causeEntityId,
+                        targetWorld, targetPos, targetName, targetUserId, targetEntityId,
+                        time, undone, item, nbt, delta, stack, flags);
+            }
+            default -> throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private static void writeInstant(DataOutput out, Instant instant) throws IOException {
+        out.writeLong(instant.getEpochSecond());
+        out.writeInt(instant.getNano());
+    }
+
+    private static Instant readInstant(DataInput in) throws IOException {
+        return Instant.ofEpochSecond(in.readLong(), in.readInt());
+    }
+
+    private static void writeWorld(DataOutput out, World world) throws IOException {
+        out.writeBoolean(world != null);
+        if (world != null) {
+            if (server == null) server = world.getServer();
+            out.writeUTF(world.getRegistryKey().getValue().toString());
+        }
+    }
+
+    private static ServerWorld readWorld(DataInput in) throws IOException {
+        if (!in.readBoolean()) return null;
+        var id = new Identifier(in.readUTF());
+        var s = server;
+        if (s == null) throw new IOException("Cannot resolve world " + id + " without a server.");
+        return s.getWorld(RegistryKey.of(Registry.WORLD_KEY, id));
+    }
+
+    private static void writePos(DataOutput out, BlockPos pos) throws IOException {
+        out.writeBoolean(pos != null);
+        if (pos != null) out.writeLong(pos.asLong());
+    }
+
+    private static BlockPos readPos(DataInput in) throws IOException {
+        return in.readBoolean() ? BlockPos.fromLong(in.readLong()) : null;
+    }
+
+    private static void writeVec(DataOutput out, Vec3d vec) throws IOException {
+        out.writeBoolean(vec != null);
+        if (vec != null) {
+            out.writeDouble(vec.x);
+            out.writeDouble(vec.y);
+            out.writeDouble(vec.z);
+        }
+    }
+
+    private static Vec3d readVec(DataInput in) throws IOException {
+        return in.readBoolean() ? new Vec3d(in.readDouble(), in.readDouble(), in.readDouble()) : null;
+    }
+
+    private static void writeString(DataOutput out, String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) out.writeUTF(string);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeUuid(DataOutput out, UUID uuid) throws IOException {
+        out.writeBoolean(uuid != null);
+        if (uuid != null) {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+    }
+
+    private static UUID readUuid(DataInput in) throws IOException {
+        return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+    }
+
+    private static void writeNbt(DataOutput out, NbtCompound nbt) throws IOException {
+        out.writeBoolean(nbt != null);
+        if (nbt != null) NbtIo.write(nbt, out);
+    }
+
+    private static NbtCompound readNbt(DataInput in) throws IOException {
+        return in.readBoolean() ? NbtIo.read(in) : null;
+    }
+}
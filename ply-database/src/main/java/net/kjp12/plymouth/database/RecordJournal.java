@@ -0,0 +1,153 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T11:42:09
+
+import net.kjp12.plymouth.database.records.PlymouthRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Memory-mapped write-ahead journal of records that have yet to be acknowledged by the database.
+ * <p>
+ * Records are framed by their length and encoded by {@link RecordCodec}, with a zero length marking the end.
+ * The terminator is written before the frame's length, so a torn write is never mistaken for a record.
+ * Once the database acknowledges everything written, the journal is rewound to the start.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class RecordJournal implements Closeable {
+    private static final Logger log = LogManager.getLogger(RecordJournal.class);
+    private static final int INITIAL_SIZE = 1 << 20;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream(256);
+    private final DataOutputStream output = new DataOutputStream(frame);
+    private MappedByteBuffer map;
+    private int position, records;
+
+    RecordJournal(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map(Math.max(INITIAL_SIZE, channel.size()));
+        // Finds the end of whatever the last session left behind.
+        int length;
+        while (position + 4 <= map.capacity() && (length = map.getInt(position)) > 0 && position + 8L + length <= map.capacity()) {
+            position += 4 + length;
+            records++;
+        }
+        if (records != 0) log.warn("{} has {} unacknowledged records from the last session, replaying once possible.", path, records);
+    }
+
+    /**
+     * Appends the record to the journal. Must only be called from the consuming thread.
+     *
+     * @param record The record to journal.
+     * @return true if written, false if the record couldn't be written.
+     */
+    boolean append(PlymouthRecord record) {
+        try {
+            frame.reset();
+            RecordCodec.write(output, record);
+            int length = frame.size();
+            ensure(position + 8L + length);
+            map.put(position + 4, frame.toByteArray(), 0, length);
+            map.putInt(position + 4 + length, 0);
+            map.putInt(position, length);
+            position += 4 + length;
+            records++;
+            return true;
+        } catch (IOException | RuntimeException exception) {
+            log.error("Failed to journal record {} to {}.", record, path, exception);
+            return false;
+        }
+    }
+
+    /**
+     * Forces everything appended so far out to disk.
+     */
+    void sync() {
+        map.force(0, position + 4);
+    }
+
+    /**
+     * Decodes every journaled record in order. The journal is left as is until {@link #acknowledge()}.
+     *
+     * @param consumer The consumer to pass the records to.
+     * @return The amount of records replayed.
+     */
+    int replay(Consumer<PlymouthRecord> consumer) {
+        int read = 0, offset = 0;
+        try {
+            while (offset < position) {
+                int length = map.getInt(offset);
+                var body = new byte[length];
+                map.get(offset + 4, body);
+                offset += 4 + length;
+                read++;
+                consumer.accept(RecordCodec.read(new DataInputStream(new ByteArrayInputStream(body))));
+            }
+        } catch (IOException | RuntimeException exception) {
+            log.error("Failed to replay journaled records from {} @ {}; {} records will be skipped.", path, offset, records - read, exception);
+        }
+        return read;
+    }
+
+    /**
+     * Marks everything journaled as acknowledged by the database, rewinding the journal.
+     */
+    void acknowledge() {
+        if (position == 0) return;
+        map.putInt(0, 0);
+        map.force(0, 4);
+        position = records = 0;
+        if (map.capacity() > INITIAL_SIZE << 2) try {
+            // The journal grew while the database was unavailable; give the space back.
+            channel.truncate(INITIAL_SIZE);
+            map(INITIAL_SIZE);
+        } catch (IOException ioe) {
+            log.error("Failed to shrink {}.", path, ioe);
+        }
+    }
+
+    /**
+     * @return true if nothing has been journaled since the last acknowledgement.
+     */
+    boolean isEmpty() {
+        return position == 0;
+    }
+
+    /**
+     * @return The amount of unacknowledged records.
+     */
+    int size() {
+        return records;
+    }
+
+    private void ensure(long required) throws IOException {
+        if (required <= map.capacity()) return;
+        long size = map.capacity();
+        while (size < required) size <<= 1;
+        if (size > Integer.MAX_VALUE) throw new IOException(path + " is full.");
+        map.force();
+        map(size);
+    }
+
+    private void map(long size) throws IOException {
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        map.force();
+        channel.close();
+    }
+}
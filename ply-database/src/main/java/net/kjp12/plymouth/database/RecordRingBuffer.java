@@ -0,0 +1,93 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T10:02:17
+
+import net.kjp12.plymouth.database.records.PlymouthRecord;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded multi-producer, single-consumer ring buffer for records.
+ * <p>
+ * Each slot carries a sequence number so producers can claim a slot with a single CAS on the tail,
+ * and the consumer can tell a claimed slot apart from a published one without any locks.
+ * The capacity is rounded up to the next power of two.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class RecordRingBuffer {
+    private final int capacity, mask;
+    private final AtomicReferenceArray<PlymouthRecord> buffer;
+    private final AtomicLongArray sequence;
+    private final AtomicLong tail = new AtomicLong();
+    // Only ever written by the consumer.
+    private volatile long head;
+
+    RecordRingBuffer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.buffer = new AtomicReferenceArray<>(this.capacity);
+        this.sequence = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) sequence.set(i, i);
+    }
+
+    /**
+     * Attempts to insert the record. Safe to call from any thread.
+     *
+     * @param record The record to insert.
+     * @return true if inserted, false if the buffer is full.
+     */
+    boolean offer(PlymouthRecord record) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long dif = sequence.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer.set(index, record);
+                    // Publishes the record to the consumer.
+                    sequence.lazySet(index, pos + 1);
+                    return true;
+                }
+            } else if (dif < 0) {
+                return false;
+            }
+            // Another producer claimed the slot first, retry on the next one.
+        }
+    }
+
+    /**
+     * Removes the next record. Must only be called from the consuming thread.
+     *
+     * @return The next record, or null if none are published.
+     */
+    PlymouthRecord poll() {
+        long pos = head;
+        int index = (int) pos & mask;
+        if (sequence.get(index) != pos + 1) return null;
+        var record = buffer.get(index);
+        buffer.lazySet(index, null);
+        // Frees the slot for the producer that wraps around onto it.
+        sequence.lazySet(index, pos + capacity);
+        head = pos + 1;
+        return record;
+    }
+
+    /**
+     * @return An estimate of how many records are currently queued.
+     */
+    int size() {
+        long h = head;
+        return (int) Math.max(0, Math.min(capacity, tail.get() - h));
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,123 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T10:58:44
+
+import net.kjp12.plymouth.database.records.PlymouthRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Append-only file of records that couldn't fit into the queue.
+ * <p>
+ * Records are framed by their length and encoded by {@link RecordCodec}.
+ * Once every record has been drained back out, the file is truncated.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class RecordSpool implements Closeable {
+    private static final Logger log = LogManager.getLogger(RecordSpool.class);
+
+    private final Path path;
+    private FileChannel channel;
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream(256);
+    private final DataOutputStream output = new DataOutputStream(frame);
+    private long readPosition, writePosition;
+
+    RecordSpool(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        this.path = path;
+        this.channel = open(path);
+        // Anything left over from the last session will be drained once worlds can be resolved again.
+        this.writePosition = channel.size();
+    }
+
+    /**
+     * Appends the record to the end of the spool.
+     *
+     * @param record The record to spool.
+     * @return true if written, false if the record couldn't be written.
+     */
+    synchronized boolean write(PlymouthRecord record) {
+        try {
+            frame.reset();
+            output.writeInt(0);
+            RecordCodec.write(output, record);
+            var bytes = frame.toByteArray();
+            var buffer = ByteBuffer.wrap(bytes).putInt(0, bytes.length - 4);
+            while (buffer.hasRemaining()) writePosition += channel.write(buffer, writePosition);
+            return true;
+        } catch (IOException | RuntimeException exception) {
+            log.error("Failed to spool record {} to {}.", record, path, exception);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if there are records waiting to be drained.
+     */
+    synchronized boolean hasPending() {
+        return readPosition < writePosition;
+    }
+
+    /**
+     * Reads up to <code>max</code> records out of the spool, truncating it when empty.
+     *
+     * @param max      The maximum amount of records to read.
+     * @param consumer The consumer to pass the records to.
+     * @return The amount of records read.
+     */
+    synchronized int drain(int max, Consumer<PlymouthRecord> consumer) {
+        if (readPosition >= writePosition || !RecordCodec.canDecode()) return 0;
+        int read = 0;
+        var header = ByteBuffer.allocate(4);
+        try {
+            while (read < max && readPosition < writePosition) {
+                header.clear();
+                readFully(header, readPosition);
+                var body = ByteBuffer.allocate(header.getInt(0));
+                readFully(body, readPosition + 4);
+                readPosition += 4 + body.capacity();
+                read++;
+                consumer.accept(RecordCodec.read(new DataInputStream(new ByteArrayInputStream(body.array()))));
+            }
+            if (readPosition >= writePosition) {
+                channel.truncate(0);
+                readPosition = writePosition = 0;
+            }
+        } catch (IOException | RuntimeException exception) {
+            // The spool is unreadable from here on; keep the file around for inspection and start anew.
+            log.error("Failed to read spooled records from {} @ {}; setting the rest aside.", path, readPosition, exception);
+            try {
+                channel.close();
+                Files.move(path, path.resolveSibling(path.getFileName() + ".corrupt-" + System.currentTimeMillis()));
+                channel = open(path);
+            } catch (IOException ioe) {
+                log.error("Failed to reopen {}, records will no longer be spooled.", path, ioe);
+            }
+            readPosition = writePosition = 0;
+        }
+        return read;
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException(path + " @ " + position);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
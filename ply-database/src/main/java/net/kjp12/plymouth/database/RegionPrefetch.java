@@ -0,0 +1,415 @@
+package net.kjp12.plymouth.database;// Created 2026-10-18T19:58:22
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.kjp12.plymouth.database.records.*;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+/**
+ * Index of the recent block and inventory history of the chunks around inspectors, so that their lookups are
+ * answered without going to the database.
+ * <p>
+ * Each chunk is loaded by a single streamed area lookup per type on a reader, limited to the most recent records,
+ * keeping up to a page of history per position. Records queued from then on are applied on top as they come in.
+ * Block records are prepended, while inventory records leave their positions to the database, as inventory lookups
+ * are by cause.
+ * <p>
+ * Positions already {@link DirtyPositions dirty} as the load starts may have records the load won't see,
+ * so they're left to the database too. Records queued while loading are applied once it's done, skipping any
+ * the load already saw. Should the load hit its limit of records, any position it hadn't read a full page for is
+ * left to the database, as older history may have been cut off. So are any positions when block records are being
+ * coalesced.
+ * <p>
+ * Loads wait here rather than on the readers, only one being run at a time so that they never hold up the
+ * inspectors' own lookups. The most recently requested chunks are loaded first, nearest to the inspector first,
+ * with the oldest waiting loads being dropped once there's more waiting than chunks to hold.
+ * <p>
+ * Safe for concurrent use, guarded by the dirty positions.
+ *
+ * @author KJP12
+ * @since ${version}
+ **/
+final class RegionPrefetch {
+    private static final int MAX_IN_FLIGHT = 1;
+    private final DirtyPositions dirty;
+    private final Consumer<LookupRecord<?>> submit;
+    private final int radius, capacity, limit;
+    private final boolean exact;
+    // Access-ordered, so the eldest is the least recently used. Guarded by dirty.
+    private final LinkedHashMap<ChunkKey, Chunk> chunks;
+    // The loads yet to be submitted, most recently requested first. Guarded by dirty.
+    private final ArrayDeque<Load> waiting = new ArrayDeque<>();
+    private int inFlight;
+    private long hits;
+
+    /**
+     * @param dirty    The positions with records yet to be committed, also guarding this index.
+     * @param submit   Runs a lookup on a reader.
+     * @param radius   The radius of chunks to load around the inspector.
+     * @param capacity The amount of chunks to hold.
+     * @param limit    The amount of records to load per chunk and type.
+     * @param exact    Whether queued block records are stored as is, being false when they're coalesced.
+     */
+    RegionPrefetch(DirtyPositions dirty, Consumer<LookupRecord<?>> submit, int radius, int capacity, int limit, boolean exact) {
+        this.dirty = dirty;
+        this.submit = submit;
+        this.radius = radius;
+        this.capacity = capacity;
+        this.limit = limit;
+        this.exact = exact;
+        this.chunks = new LinkedHashMap<>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ChunkKey, Chunk> eldest) {
+                if (size() <= RegionPrefetch.this.capacity) return false;
+                eldest.getValue().dropped = true;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Loads every chunk within the radius of the position that isn't already held, ahead of any loads waiting.
+     *
+     * @param world The world to load in.
+     * @param pos   The position to load around.
+     */
+    void prefetch(ServerWorld world, BlockPos pos) {
+        int cx = pos.getX() >> 4, cz = pos.getZ() >> 4;
+        synchronized (dirty) {
+            // Outermost ring first, as each is put in front of the last.
+            for (int r = radius; r >= 0; r--) {
+                for (int x = cx - r; x <= cx + r; x++) {
+                    for (int z = cz - r; z <= cz + r; z++) {
+                        if (Math.max(Math.abs(x - cx), Math.abs(z - cz)) == r) load(world, x, z);
+                    }
+                }
+            }
+            while (waiting.size() > capacity * 2) {
+                var load = waiting.pollLast();
+                load.chunk.dropped = true;
+                load.lookup.fail(new CancellationException("Dropped for more recently requested chunks."));
+            }
+        }
+        pump();
+    }
+
+    /**
+     * Completes the lookup from the index if it's of a single position held.
+     *
+     * @param lookup The lookup about to be run.
+     * @return true if the lookup was completed and must not be run.
+     */
+    boolean offer(LookupRecord<?> lookup) {
+        if (lookup.cursor != null || lookup.page != 0) return false;
+        List<? extends PlymouthRecord> results;
+        if (lookup instanceof BlockLookupRecord block && block.flags() == LookupRecord.FLAG_T_AT) {
+            results = answer(block.targetWorld, block.minTPos, true);
+        } else if (lookup instanceof InventoryLookupRecord inventory && inventory.flags() == LookupRecord.FLAG_C_AT) {
+            results = answer(inventory.causeWorld, inventory.minPos, false);
+        } else {
+            return false;
+        }
+        if (results == null) return false;
+        complete(lookup, results);
+        return true;
+    }
+
+    /**
+     * Applies the record to any chunk held for its position. Must only be called once the record has been queued.
+     *
+     * @param record The record queued.
+     */
+    void record(PlymouthRecord record) {
+        if (record instanceof BlockRecord block) {
+            synchronized (dirty) {
+                dirty.mark(block.targetWorld, block.targetPos);
+                var chunk = chunk(block.targetWorld, block.targetPos);
+                if (chunk == null) return;
+                if (chunk.loading != 0) chunk.pending.add(block);
+                else if (exact) chunk.blocks.prepend(block.targetPos.asLong(), block);
+                else chunk.blocks.forget(block.targetPos.asLong());
+            }
+        } else if (record instanceof InventoryRecord inventory) {
+            inventory(inventory.causeWorld, inventory.causePos);
+            inventory(inventory.targetWorld, inventory.targetPos);
+        }
+    }
+
+    /**
+     * Leaves the record's positions to the database, as the record was dropped or discarded and may already have
+     * been applied, showing history the database won't have.
+     *
+     * @param record The record that won't reach the database.
+     */
+    void forget(PlymouthRecord record) {
+        if (record instanceof BlockRecord block) {
+            synchronized (dirty) {
+                var chunk = chunk(block.targetWorld, block.targetPos);
+                if (chunk == null) return;
+                if (chunk.pending != null) chunk.pending.remove(block);
+                chunk.blocks.forget(block.targetPos.asLong());
+            }
+        } else if (record instanceof InventoryRecord inventory) {
+            inventory(inventory.causeWorld, inventory.causePos);
+            inventory(inventory.targetWorld, inventory.targetPos);
+        }
+    }
+
+    /**
+     * Leaves the position's inventory history to the database, as a record for it is about to be made.
+     *
+     * @param world The world of the position, may be null.
+     * @param pos   The position, may be null.
+     */
+    void inventory(World world, BlockPos pos) {
+        if (world == null || pos == null) return;
+        synchronized (dirty) {
+            dirty.mark(world, pos);
+            var chunk = chunk(world, pos);
+            if (chunk != null) chunk.items.forget(pos.asLong());
+        }
+    }
+
+    /**
+     * @return The amount of lookups answered from the index.
+     */
+    long getHits() {
+        synchronized (dirty) {
+            return hits;
+        }
+    }
+
+    private List<? extends PlymouthRecord> answer(World world, BlockPos pos, boolean blocks) {
+        synchronized (dirty) {
+            var chunk = chunk(world, pos);
+            if (chunk == null || chunk.loading != 0) return null;
+            var results = (blocks ? chunk.blocks : chunk.items).answer(pos.asLong());
+            if (results != null) hits++;
+            return results;
+        }
+    }
+
+    /**
+     * Queues the loads of the chunk in front of those waiting, or moves them there if they're still waiting.
+     * Must be called while holding dirty.
+     */
+    private void load(ServerWorld world, int x, int z) {
+        var key = new ChunkKey(world, ChunkPos.toLong(x, z));
+        var held = chunks.get(key);
+        if (held != null) {
+            if (held.loading == 0) return;
+            var queued = new ArrayList<Load>(2);
+            for (var iterator = waiting.iterator(); iterator.hasNext(); ) {
+                var load = iterator.next();
+                if (load.chunk == held) {
+                    queued.add(load);
+                    iterator.remove();
+                }
+            }
+            for (int i = queued.size() - 1; i >= 0; i--) waiting.addFirst(queued.get(i));
+            return;
+        }
+        var unknown = dirty.within(world, key.chunk);
+        // Everything is dirty, likely from being offline; nothing can be trusted to load.
+        if (unknown == null) return;
+        var chunk = new Chunk(unknown);
+        chunks.put(key, chunk);
+        var min = new BlockPos(x << 4, world.getBottomY(), z << 4);
+        var max = new BlockPos((x << 4) + 15, world.getTopY() - 1, (z << 4) + 15);
+        var blocks = new BlockLookupRecord(null, null, null, null, null, null, world, min, max, null, null, 0, LookupRecord.FLAG_T_AREA);
+        blocks.streaming(limit, limit, rows -> {
+            synchronized (dirty) {
+                for (var row : rows) chunk.blocks.load(key, row.targetPos, row);
+            }
+        });
+        var items = new InventoryLookupRecord(world, min, max, null, null, null, null, null, null, null, null, null, 0, LookupRecord.FLAG_C_AREA);
+        items.streaming(limit, limit, rows -> {
+            synchronized (dirty) {
+                for (var row : rows) chunk.items.load(key, row.causePos, row);
+            }
+        });
+        blocks.getFuture().whenComplete((rows, throwable) -> loaded(key, chunk, throwable));
+        items.getFuture().whenComplete((rows, throwable) -> loaded(key, chunk, throwable));
+        waiting.addFirst(new Load(chunk, items));
+        waiting.addFirst(new Load(chunk, blocks));
+    }
+
+    /**
+     * Submits waiting loads while fewer than {@link #MAX_IN_FLIGHT} are running, skipping those of dropped chunks.
+     * Must be called without holding dirty, as the readers may complete loads on the calling thread.
+     */
+    private void pump() {
+        while (true) {
+            Load load;
+            boolean dropped;
+            synchronized (dirty) {
+                if (inFlight >= MAX_IN_FLIGHT || (load = waiting.pollFirst()) == null) return;
+                dropped = load.chunk.dropped;
+                if (!dropped) inFlight++;
+            }
+            if (dropped) {
+                load.lookup.fail(new CancellationException("Chunk was dropped before loading."));
+                continue;
+            }
+            load.lookup.getFuture().whenComplete((rows, throwable) -> {
+                synchronized (dirty) {
+                    inFlight--;
+                }
+                pump();
+            });
+            submit.accept(load.lookup);
+        }
+    }
+
+    private void loaded(ChunkKey key, Chunk chunk, Throwable throwable) {
+        synchronized (dirty) {
+            if (throwable != null) {
+                // Only the one being loaded, as a chunk failing to load is left to be loaded again later.
+                chunk.dropped = true;
+                chunks.remove(key, chunk);
+                return;
+            }
+            if (--chunk.loading != 0) return;
+            chunk.blocks.finish(limit);
+            chunk.items.finish(limit);
+            for (var block : chunk.pending) {
+                long pos = block.targetPos.asLong();
+                if (!exact) chunk.blocks.forget(pos);
+                else if (!chunk.blocks.loaded(pos, block)) chunk.blocks.prepend(pos, block);
+            }
+            chunk.pending = null;
+        }
+    }
+
+    private Chunk chunk(World world, BlockPos pos) {
+        return chunks.get(new ChunkKey(world, ChunkPos.toLong(pos.getX() >> 4, pos.getZ() >> 4)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends PlymouthRecord> void complete(LookupRecord<T> lookup, List<? extends PlymouthRecord> results) {
+        lookup.complete((List<T>) results);
+    }
+
+    private record Load(Chunk chunk, LookupRecord<?> lookup) {
+    }
+
+    private record ChunkKey(World world, long chunk) {
+        /**
+         * Rows outside the chunk are never held, as they wouldn't be kept up to date by the records queued for it.
+         */
+        boolean contains(BlockPos pos) {
+            return pos != null && ChunkPos.toLong(pos.getX() >> 4, pos.getZ() >> 4) == chunk;
+        }
+    }
+
+    private static final class Chunk {
+        private final Index<BlockRecord> blocks;
+        private final Index<InventoryRecord> items;
+        // The lookups yet to finish, and the block records queued in the meantime.
+        private int loading = 2;
+        private ArrayList<BlockRecord> pending = new ArrayList<>();
+        // Set once no longer held, so that its waiting loads are skipped.
+        private boolean dropped;
+
+        private Chunk(LongOpenHashSet unknown) {
+            this.blocks = new Index<>(unknown);
+            this.items = new Index<>(unknown.clone());
+        }
+    }
+
+    /**
+     * Up to a page of history per position, most recent first.
+     */
+    private static final class Index<R extends PlymouthRecord> {
+        private final Long2ObjectOpenHashMap<ArrayList<R>> positions = new Long2ObjectOpenHashMap<>();
+        // Positions that may have history not held, left to the database.
+        private final LongOpenHashSet unknown;
+        // The amount of rows the load read.
+        private int rows;
+        // Set once the load hit its limit; positions not held may then have history.
+        private boolean truncated;
+
+        private Index(LongOpenHashSet unknown) {
+            this.unknown = unknown;
+        }
+
+        /**
+         * Adds a row from the load, which are most recent first.
+         */
+        private void load(ChunkKey key, BlockPos pos, R row) {
+            rows++;
+            if (!key.contains(pos)) return;
+            var list = positions.get(pos.asLong());
+            if (list == null) positions.put(pos.asLong(), list = new ArrayList<>(DatabaseHelper.PAGE_SIZE));
+            if (list.size() < DatabaseHelper.PAGE_SIZE) list.add(row);
+        }
+
+        /**
+         * Called once the load is done. If it hit its limit, anything older than the last row read may have been
+         * cut off, so only positions with a full page are kept.
+         *
+         * @param limit The limit of the load.
+         */
+        private void finish(int limit) {
+            if (rows < limit) return;
+            truncated = true;
+            positions.values().removeIf(list -> list.size() < DatabaseHelper.PAGE_SIZE);
+        }
+
+        /**
+         * @return true if the load saw a row matching the block record queued while loading.
+         */
+        private boolean loaded(long pos, BlockRecord block) {
+            var list = positions.get(pos);
+            if (list == null) return false;
+            // The database only holds microseconds.
+            var time = block.time.truncatedTo(ChronoUnit.MICROS);
+            for (var row : list) {
+                if (row instanceof BlockRecord other && other.action == block.action && other.block == block.block && other.time.equals(time)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void prepend(long pos, R record) {
+            if (unknown.contains(pos)) return;
+            var list = positions.get(pos);
+            if (list == null) {
+                // Truncated, so there may be history beyond the record.
+                if (truncated) return;
+                positions.put(pos, list = new ArrayList<>(DatabaseHelper.PAGE_SIZE));
+            } else if (list.size() >= DatabaseHelper.PAGE_SIZE) {
+                list.remove(list.size() - 1);
+            }
+            list.add(0, record);
+        }
+
+        private void forget(long pos) {
+            positions.remove(pos);
+            unknown.add(pos);
+        }
+
+        /**
+         * @return The first page for the position, or null if it's left to the database.
+         */
+        private List<R> answer(long pos) {
+            if (unknown.contains(pos)) return null;
+            var list = positions.get(pos);
+            if (list == null) return truncated ? null : List.of();
+            return List.copyOf(list);
+        }
+    }
+}
@@ -20,6 +20,7 @@ enum ClassMap {
     DOUBLE(double.class, "setDouble", "getDouble", Opcodes.DLOAD, Opcodes.DSTORE),
     STRING(String.class, "setString", "getString"),
     TIMESTAMP(Timestamp.class, "setTimestamp", "getTimestamp"),
+    BYTES(byte[].class, "setBytes", "getBytes"),
     ;
     static final IdentityHashMap<Class<?>, ClassMap> intern = new IdentityHashMap<>();
     final Class<?> internal;
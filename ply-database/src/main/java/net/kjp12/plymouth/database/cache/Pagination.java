@@ -17,4 +17,18 @@ public @interface Pagination {
     String limit() default "";
 
     String offset() default "";
+
+    /**
+     * Column to break ties in {@link #sort()} by, so that a row can be sought past. Must be unique together with the sort.
+     * <p>
+     * When set, the sort and tie-breaker of the last row are passed to
+     * {@link net.kjp12.plymouth.database.records.LookupRecord#setNextCursor(java.time.LocalDateTime, String)},
+     * which requires the sort to be a timestamp without a time zone.
+     */
+    Value tieBreaker() default @Value({});
+
+    /**
+     * Query to seek past the cursor of the previous page. When it applies, {@link #offset()} is skipped.
+     */
+    Query seek() default @Query(query = "", values = {}, mask = 0);
 }
@@ -6,6 +6,8 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import net.kjp12.plymouth.database.PlymouthException;
 import net.kjp12.plymouth.database.records.LookupRecord;
 import net.kjp12.plymouth.database.records.PlymouthRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.objectweb.asm.*;
 import org.objectweb.asm.util.ASMifier;
 import org.objectweb.asm.util.TraceClassVisitor;
@@ -13,44 +15,79 @@ import org.objectweb.asm.util.TraceClassVisitor;
 import java.io.FileOutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.StampedLock;
 
 /**
+ * Generates and caches a statement handler per combination of flags for a lookup record.
+ * <p>
+ * The handler classes are compiled once and shared by every cache of the same provider, record and proxy,
+ * leaving each connection only to prepare its statements. Each cache holds up to a bounded amount of prepared
+ * handlers, closing the least recently used when full.
+ * <p>
+ * Safe for concurrent use. Handlers are found by an optimistic read of the map, only taking the write lock to add or
+ * remove one. As a handler's statement belongs to the cache's connection, which may only run one query at a time,
+ * queries on the same handler are serialised; lookups run in parallel by having a cache per connection.
+ *
  * @author KJP12
  * @since ${version}
  **/
 public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthRecord> { // I - Input | O - Output
+    private static final Logger log = LogManager.getLogger(StatementCache.class);
     private static final MethodHandles.Lookup SELF = MethodHandles.lookup();
 
     private static final String
             STATEMENT_TYPE = Type.getInternalName(PreparedStatement.class),
             STATEMENT_DESCRIPTOR = Type.getDescriptor(PreparedStatement.class),
             RESULT_SET_TYPE = Type.getInternalName(ResultSet.class),
-            RESULT_SET_DESCRIPTOR = Type.getDescriptor(ResultSet.class);
+            RESULT_SET_DESCRIPTOR = Type.getDescriptor(ResultSet.class),
+            // The erasures of StatementHandler's chunk & drain.
+            CHUNK_DESCRIPTOR = "(" + Type.getDescriptor(LookupRecord.class) + "Ljava/util/ArrayList;)Ljava/util/ArrayList;",
+            DRAIN_DESCRIPTOR = "(" + Type.getDescriptor(LookupRecord.class) + "Ljava/util/ArrayList;)V";
 
     private static final Type
             STRING_TYPE = Type.getType(String.class);
 
-    private final SqlConnectionProvider sqlImpl;
+    // Constructors of the compiled handler classes, taking the provider and connection.
+    private static final ConcurrentHashMap<Shape, MethodHandle> compiled = new ConcurrentHashMap<>();
+    private static final LongAdder hits = new LongAdder(), misses = new LongAdder(), compiles = new LongAdder(), compileNanos = new LongAdder();
+
+    private final SqlConnectionProvider sqlImpl, connection;
+    private final int capacity;
     private final StampedLock lock = new StampedLock();
     private final Int2ObjectMap<StatementHandler<I, O>> statementCache = new Int2ObjectOpenHashMap<>();
     private final Method proxy;
     private final Class<I> iClass;
 
     public StatementCache(SqlConnectionProvider sqlImpl, Class<I> iClass, Method proxy) {
+        this(sqlImpl, sqlImpl, iClass, proxy, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param sqlImpl    The provider, as referred to by <code>^</code> within queries.
+     * @param connection The connection to prepare the statements on, allowing a cache per connection.
+     * @param iClass     The lookup record the statements are for.
+     * @param proxy      The method to map each row with.
+     * @param capacity   The amount of prepared handlers to hold before closing the least recently used.
+     */
+    public StatementCache(SqlConnectionProvider sqlImpl, SqlConnectionProvider connection, Class<I> iClass, Method proxy, int capacity) {
         this.sqlImpl = sqlImpl;
+        this.connection = connection;
         this.iClass = iClass;
         this.proxy = proxy;
+        this.capacity = Math.max(1, capacity);
     }
 
     /**
@@ -65,8 +102,11 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
             var itr = Int2ObjectMaps.fastIterator(statementCache);
             while (itr.hasNext()) {
                 var e = itr.next();
+                var handler = e.getValue();
                 try {
-                    e.getValue().closeStatement();
+                    synchronized (handler) {
+                        handler.closeStatement();
+                    }
                 } catch (PlymouthException sql) {
                     if (l == null) l = new ArrayList<>();
                     l.add(new PlymouthException(sql, e));
@@ -91,10 +131,166 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
     }
 
     public void handle(I i) throws PlymouthException {
-        statementCache.computeIfAbsent(i.flags(), j -> surrogate(i)).query(i);
+        int flags = i.flags();
+        while (true) {
+            var handler = get(flags);
+            if (handler == null) {
+                misses.increment();
+                handler = put(flags, instantiate(flags));
+            } else {
+                hits.increment();
+            }
+            synchronized (handler) {
+                // Closed by an eviction or reload since it was found; look it up again.
+                if (handler.statement == null) continue;
+                handler.lastUsed = System.nanoTime();
+                if ((flags & LookupRecord.FLAG_STREAM) != 0) handler.stream(i);
+                else handler.query(i);
+                return;
+            }
+        }
+    }
+
+    private StatementHandler<I, O> get(int flags) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) try {
+            var handler = statementCache.get(flags);
+            if (lock.validate(stamp)) return handler;
+        } catch (RuntimeException torn) {
+            // The map was written to while being read; retried under the read lock.
+        }
+        stamp = lock.readLock();
+        try {
+            return statementCache.get(flags);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds the handler unless another was added for the flags in the meantime, in which case that one is used
+     * and the given handler is closed.
+     *
+     * @return The handler now cached for the flags.
+     */
+    private StatementHandler<I, O> put(int flags, StatementHandler<I, O> handler) {
+        StatementHandler<I, O> existing, evicted = null;
+        long stamp = lock.writeLock();
+        try {
+            existing = statementCache.get(flags);
+            if (existing == null) {
+                if (statementCache.size() >= capacity) evicted = evict();
+                statementCache.put(flags, handler);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        // Closed outside the lock, as it may have to wait out a query still running on it.
+        if (evicted != null) close(evicted);
+        if (existing == null) return handler;
+        close(handler);
+        return existing;
+    }
+
+    /**
+     * Compiles the handlers for the given flags without preparing any statements, so that the first lookups of
+     * those flags only have to prepare. Safe to call from any thread.
+     *
+     * @param flags The combinations of flags to compile for.
+     * @throws PlymouthException If any handler fails to compile.
+     */
+    public void warmUp(int... flags) throws PlymouthException {
+        for (int f : flags) compiled(f);
+    }
+
+    /**
+     * Removes the least recently used handler. Must hold the write lock.
+     *
+     * @return The handler removed, to be closed once the lock is released.
+     */
+    private StatementHandler<I, O> evict() {
+        // The entries are reused by the iterator, so only the key is kept.
+        var itr = Int2ObjectMaps.fastIterator(statementCache);
+        StatementHandler<I, O> oldest = null;
+        int key = 0;
+        while (itr.hasNext()) {
+            var e = itr.next();
+            var handler = e.getValue();
+            if (oldest == null || handler.lastUsed - oldest.lastUsed < 0) {
+                oldest = handler;
+                key = e.getIntKey();
+            }
+        }
+        return oldest == null ? null : statementCache.remove(key);
+    }
+
+    private static void close(StatementHandler<?, ?> handler) {
+        try {
+            synchronized (handler) {
+                handler.closeStatement();
+            }
+        } catch (PlymouthException sql) {
+            // The handler is gone regardless; a failure to close only leaks until the connection closes.
+            log.warn("Failed to close an evicted statement handler.", sql);
+        }
+    }
+
+    private StatementHandler<I, O> instantiate(int flags) throws PlymouthException {
+        var cons = compiled(flags);
+        try {
+            @SuppressWarnings("unchecked") var inst = (StatementHandler<I, O>) cons.invoke(sqlImpl, connection);
+            return inst;
+        } catch (PlymouthException pe) {
+            throw pe;
+        } catch (VirtualMachineError vme) {
+            throw new Error("Virtual machine has failed.", vme);
+        } catch (Throwable throwable) {
+            throw new PlymouthException(throwable, flags, iClass, proxy);
+        }
+    }
+
+    private MethodHandle compiled(int flags) throws PlymouthException {
+        var shape = new Shape(sqlImpl.getClass(), iClass, proxy, flags);
+        var cons = compiled.get(shape);
+        if (cons != null) return cons;
+        return compiled.computeIfAbsent(shape, s -> {
+            long start = System.nanoTime();
+            var c = surrogate(s.flags());
+            compiles.increment();
+            compileNanos.add(System.nanoTime() - start);
+            return c;
+        });
+    }
+
+    /**
+     * @return The amount of lookups that found a handler already prepared on their connection.
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The amount of lookups that had to prepare a handler, including any after an eviction.
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The amount of handler classes compiled.
+     */
+    public static long getCompiles() {
+        return compiles.sum();
+    }
+
+    /**
+     * @return The total time spent compiling handlers in nanoseconds.
+     */
+    public static long getCompileNanos() {
+        return compileNanos.sum();
     }
 
-    private StatementHandler<I, O> surrogate(I i) throws PlymouthException {
+    private MethodHandle surrogate(int flags) throws PlymouthException {
         var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
         var handlerType = Type.getType(StatementHandler.class);
         var iType = Type.getType(iClass);
@@ -102,13 +298,21 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
         var iName = Type.getInternalName(iClass);
         var provider = Type.getType(SqlConnectionProvider.class);
         var statementHandler = handlerType.getInternalName();
-        var self = statementHandler + '$' + i.getType() + '$' + i.flags();
+        var self = statementHandler + '$' + iClass.getSimpleName() + '$' + flags;
         var sqlQuery = new StringBuilder();
         byte[] array;
 
         Table[] tables = proxy.getAnnotationsByType(Table.class);
         Arrays.sort(tables, Comparator.comparingInt(Table::table));
 
+        Pagination pagination = proxy.getAnnotation(Pagination.class);
+        var tieBreaker = pagination.tieBreaker();
+        // Streaming reads up to its limit of rows in one go, so there's neither an offset nor a cursor to track.
+        boolean streaming = (flags & LookupRecord.FLAG_STREAM) != 0;
+        // Seeking requires both the sort and the tie-breaker of the last row.
+        boolean seekable = !streaming && tieBreaker.value().length != 0 && pagination.sort().value().length != 0;
+        boolean seeking = seekable && !pagination.seek().query().isBlank() && (flags & LookupRecord.FLAG_SEEK) != 0;
+
         writer.visit(Opcodes.V11, /*Opcodes.ACC_SYNTHETIC |*/ Opcodes.ACC_FINAL, self, null, statementHandler, null);
 
         { // Query function, overrides the interface.
@@ -138,6 +342,14 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
             query.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/util/ArrayList", "<init>", "(I)V", false);
             query.visitVarInsn(Opcodes.ASTORE, 3);
 
+            if (seekable) {
+                // Clear the cursor at 4 & 5, being the time and tie-breaker of the last row.
+                query.visitInsn(Opcodes.ACONST_NULL);
+                query.visitVarInsn(Opcodes.ASTORE, 4);
+                query.visitInsn(Opcodes.ACONST_NULL);
+                query.visitVarInsn(Opcodes.ASTORE, 5);
+            }
+
             // Setup loop
             Label loop = new Label(), end = new Label();
             query.visitLabel(loop);
@@ -162,17 +374,12 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
                         }
                     }
                     if (value == null)
-                        throw new IllegalArgumentException(proxy + " does not contain Value annotation on parameter " + i + ": param: " + params[a] + ", annotations: " + Arrays.toString(annots[a]));
+                        throw new IllegalArgumentException(proxy + " does not contain Value annotation on parameter " + a + ": param: " + params[a] + ", annotations: " + Arrays.toString(annots[a]));
 
                     appendQuery(sqlQuery, value.table(), value.value());
 
                     query.visitVarInsn(Opcodes.ALOAD, 2);
-                    int stack = a + 1;
-                    if (stack <= 5)
-                        // Use the single-instruction opcodes where applicable.
-                        query.visitInsn(Opcodes.ICONST_0 + stack);
-                    else
-                        query.visitIntInsn(Opcodes.BIPUSH, stack);
+                    pushInt(query, a + 1);
 
                     var clazz = params[a];
                     var mapper = ClassMap.findMapper(clazz);
@@ -185,6 +392,11 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
                         query.visitMethodInsn(Opcodes.INVOKEINTERFACE, RESULT_SET_TYPE, mapper.getter, "(I)" + mapper.internal.descriptorString(), true);
                     }
                 }
+                if (seekable) {
+                    var sort = pagination.sort();
+                    appendQuery(sqlQuery, sort.table(), sort.value());
+                    appendQuery(sqlQuery, tieBreaker.table(), tieBreaker.value());
+                }
                 sqlQuery.setLength(sqlQuery.length() - 1);
             }
 
@@ -205,14 +417,56 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
             query.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(proxy.getDeclaringClass()), proxy.getName(), Type.getMethodDescriptor(proxy), false);
             query.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/util/ArrayList", "add", "(Ljava/lang/Object;)Z", false);
             query.visitInsn(Opcodes.POP);
+
+            if (streaming) {
+                // Pass on the chunk once full, replacing the list at 3.
+                query.visitVarInsn(Opcodes.ALOAD, 0);
+                query.visitVarInsn(Opcodes.ALOAD, 1);
+                query.visitVarInsn(Opcodes.ALOAD, 3);
+                query.visitMethodInsn(Opcodes.INVOKEVIRTUAL, statementHandler, "chunk", CHUNK_DESCRIPTOR, false);
+                query.visitVarInsn(Opcodes.ASTORE, 3);
+            }
+
+            if (seekable) {
+                // Remember the row for the cursor, trailing the proxy's parameters.
+                int column = proxy.getParameterCount() + 1;
+                query.visitVarInsn(Opcodes.ALOAD, 2);
+                pushInt(query, column);
+                // Read as the stored wall time, so that it's bound back as is without going through any time zone.
+                query.visitLdcInsn(Type.getType(LocalDateTime.class));
+                query.visitMethodInsn(Opcodes.INVOKEINTERFACE, RESULT_SET_TYPE, "getObject", "(ILjava/lang/Class;)Ljava/lang/Object;", true);
+                query.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(LocalDateTime.class));
+                query.visitVarInsn(Opcodes.ASTORE, 4);
+                query.visitVarInsn(Opcodes.ALOAD, 2);
+                pushInt(query, column + 1);
+                query.visitMethodInsn(Opcodes.INVOKEINTERFACE, RESULT_SET_TYPE, "getString", "(I)Ljava/lang/String;", true);
+                query.visitVarInsn(Opcodes.ASTORE, 5);
+            }
             query.visitJumpInsn(Opcodes.GOTO, loop);
 
             // End loop & method, completes
             query.visitLabel(end);
             query.visitFrame(Opcodes.F_SAME, 0, new Object[0], 0, new Object[0]);
-            query.visitVarInsn(Opcodes.ALOAD, 1);
-            query.visitVarInsn(Opcodes.ALOAD, 3);
-            query.visitMethodInsn(Opcodes.INVOKEVIRTUAL, iName, "complete", "(Ljava/util/List;)V", false);
+            if (seekable) {
+                var empty = new Label();
+                query.visitVarInsn(Opcodes.ALOAD, 4);
+                query.visitJumpInsn(Opcodes.IFNULL, empty);
+                query.visitVarInsn(Opcodes.ALOAD, 1);
+                query.visitVarInsn(Opcodes.ALOAD, 4);
+                query.visitVarInsn(Opcodes.ALOAD, 5);
+                query.visitMethodInsn(Opcodes.INVOKEVIRTUAL, iName, "setNextCursor", "(Ljava/time/LocalDateTime;Ljava/lang/String;)V", false);
+                query.visitLabel(empty);
+            }
+            if (streaming) {
+                query.visitVarInsn(Opcodes.ALOAD, 0);
+                query.visitVarInsn(Opcodes.ALOAD, 1);
+                query.visitVarInsn(Opcodes.ALOAD, 3);
+                query.visitMethodInsn(Opcodes.INVOKEVIRTUAL, statementHandler, "drain", DRAIN_DESCRIPTOR, false);
+            } else {
+                query.visitVarInsn(Opcodes.ALOAD, 1);
+                query.visitVarInsn(Opcodes.ALOAD, 3);
+                query.visitMethodInsn(Opcodes.INVOKEVIRTUAL, iName, "complete", "(Ljava/util/List;)V", false);
+            }
             query.visitInsn(Opcodes.RETURN);
             query.visitMaxs(0, 0);
             query.visitEnd();
@@ -229,12 +483,13 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
             {
                 Query[] classQueries = proxy.getDeclaringClass().getAnnotationsByType(Query.class),
                         proxyQueries = proxy.getAnnotationsByType(Query.class),
-                        totalQueries = new Query[classQueries.length + proxyQueries.length];
+                        totalQueries = new Query[classQueries.length + proxyQueries.length + (seeking ? 1 : 0)];
                 System.arraycopy(classQueries, 0, totalQueries, 0, classQueries.length);
                 System.arraycopy(proxyQueries, 0, totalQueries, classQueries.length, proxyQueries.length);
+                if (seeking) totalQueries[totalQueries.length - 1] = pagination.seek();
                 boolean ran = false;
                 for (var q : totalQueries) {
-                    var check = i.flags() & q.mask();
+                    var check = flags & q.mask();
                     if (check != (q.maskRq() == -1 ? q.mask() : q.maskRq())) continue;
                     if (!ran) {
                         ran = true;
@@ -248,18 +503,22 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
                         try {
                             c0.compile(submit, v);
                         } catch (Throwable roe) {
-                            throw new PlymouthException(roe, v, q, c0, i, sqlQuery, sqlImpl);
+                            throw new PlymouthException(roe, v, q, c0, flags, sqlQuery, sqlImpl);
                         }
                 }
             }
             {
-                Pagination pagination = proxy.getAnnotation(Pagination.class);
                 var sort = pagination.sort();
                 var sortValue = sort.value();
                 if (sortValue.length != 0) {
                     appendQuery(sqlQuery.append(" order by "), sort.table(), sortValue);
                     var l = sqlQuery.length();
                     sqlQuery.replace(l - 1, l, " desc");
+                    if (seekable) {
+                        appendQuery(sqlQuery.append(','), tieBreaker.table(), tieBreaker.value());
+                        l = sqlQuery.length();
+                        sqlQuery.replace(l - 1, l, " desc");
+                    }
                 }
                 var limit = pagination.limit();
                 if (!limit.isBlank()) {
@@ -271,7 +530,7 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
                     }
                 }
                 var offset = pagination.offset();
-                if (!offset.isBlank()) {
+                if (!seeking && !streaming && !offset.isBlank()) {
                     sqlQuery.append(" offset ?");
                     try {
                         c0.compile(submit, offset);
@@ -288,14 +547,15 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
             submit.visitEnd();
         }
         { // constructor
-            var init = writer.visitMethod(0, "<init>", Type.getMethodDescriptor(Type.VOID_TYPE, provider), null, null);
+            var init = writer.visitMethod(0, "<init>", Type.getMethodDescriptor(Type.VOID_TYPE, provider, provider), null, null);
             init.visitVarInsn(Opcodes.ALOAD, 0);
             init.visitVarInsn(Opcodes.ALOAD, 1);
+            init.visitVarInsn(Opcodes.ALOAD, 2);
             init.visitLdcInsn(sqlQuery.toString());
             // Cache type has to be passed else it is impossible to initialise the class otherwise.
-            init.visitMethodInsn(Opcodes.INVOKESPECIAL, statementHandler, "<init>", Type.getMethodDescriptor(Type.VOID_TYPE, provider, STRING_TYPE), false);
+            init.visitMethodInsn(Opcodes.INVOKESPECIAL, statementHandler, "<init>", Type.getMethodDescriptor(Type.VOID_TYPE, provider, provider, STRING_TYPE), false);
             init.visitInsn(Opcodes.RETURN);
-            init.visitMaxs(3, 1);
+            init.visitMaxs(4, 3);
             init.visitEnd();
         }
         writer.visitEnd();
@@ -311,11 +571,8 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
             // Ensures that the statement handler is entirely initialised before going on to the hidden class.
             SELF.ensureInitialized(StatementHandler.class);
             var nest = SELF.defineHiddenClass(array, true);
-            var cons = nest.findConstructor(nest.lookupClass(), MethodType.methodType(void.class, SqlConnectionProvider.class));
-            @SuppressWarnings("unchecked") var inst = (StatementHandler<I, O>) cons.invoke(sqlImpl);
-            return inst;
-        } catch (VirtualMachineError | LinkageError | IllegalAccessException | IllegalArgumentException | NoSuchMethodException | SecurityException |
-                InstantiationException | InvocationTargetException | NullPointerException | SQLException | PlymouthException roe) {
+            return nest.findConstructor(nest.lookupClass(), MethodType.methodType(void.class, SqlConnectionProvider.class, SqlConnectionProvider.class));
+        } catch (VirtualMachineError | LinkageError | IllegalAccessException | IllegalArgumentException | NoSuchMethodException | SecurityException roe) {
             Throwable suppressed = null;
             try (var out = new FileOutputStream("scasm.class")) {
                 out.write(array);
@@ -327,7 +584,7 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
             var spw = new PrintWriter(sw);
             var trc = new TraceClassVisitor(null, asm, spw);
             new ClassReader(array).accept(trc, ClassReader.EXPAND_FRAMES);
-            var pe = new PlymouthException(roe, i, sqlQuery, sw, "Bytecode has been dumped at scasm.class.");
+            var pe = new PlymouthException(roe, flags, sqlQuery, sw, "Bytecode has been dumped at scasm.class.");
             if (suppressed != null) pe.addSuppressed(suppressed);
             if (roe instanceof VirtualMachineError) throw new Error("Virtual machine has failed.", pe);
             throw pe;
@@ -336,6 +593,17 @@ public final class StatementCache<I extends LookupRecord<O>, O extends PlymouthR
         }
     }
 
+    private static void pushInt(MethodVisitor visitor, int value) {
+        if (value <= 5)
+            // Use the single-instruction opcodes where applicable.
+            visitor.visitInsn(Opcodes.ICONST_0 + value);
+        else
+            visitor.visitIntInsn(Opcodes.BIPUSH, value);
+    }
+
+    private record Shape(Class<?> provider, Class<?> iClass, Method proxy, int flags) {
+    }
+
     private static void appendQuery(StringBuilder sqlQuery, int table, String[] nameStack) {
         int c = sqlQuery.length();
         if (table == 0) {
@@ -6,6 +6,8 @@ import net.kjp12.plymouth.database.records.PlymouthRecord;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Intermediate statement handler class.
@@ -15,22 +17,78 @@ import java.sql.SQLException;
  **/
 abstract class StatementHandler<I extends LookupRecord<O>, O extends PlymouthRecord> {
     protected final String statementRaw;
-    protected final SqlConnectionProvider provider;
+    protected final SqlConnectionProvider provider, connection;
+    // Only accessed while synchronised on the handler once cached.
     protected PreparedStatement statement;
     long lastUsed;
 
-    protected StatementHandler(SqlConnectionProvider provider, String statementRaw) {
+    /**
+     * @param provider     The provider the query may call out to.
+     * @param connection   The connection to prepare the statement on.
+     * @param statementRaw The raw SQL of the statement.
+     */
+    protected StatementHandler(SqlConnectionProvider provider, SqlConnectionProvider connection, String statementRaw) {
         this.provider = provider;
+        this.connection = connection;
         this.statementRaw = statementRaw;
         prepareStatement();
     }
 
     abstract void query(I i);
 
+    /**
+     * Runs the query with a server-side cursor, fetching {@link LookupRecord#chunkSize()} rows at a time.
+     * Only applies to handlers generated for {@link LookupRecord#FLAG_STREAM}.
+     * <p>
+     * The driver only uses a cursor outside of auto-commit, so a transaction is held open for the length of the
+     * query if there isn't one already.
+     *
+     * @param i The lookup to stream.
+     */
+    final void stream(I i) throws PlymouthException {
+        try {
+            var c = connection.getConnection();
+            boolean autoCommit = c.getAutoCommit();
+            if (autoCommit) c.setAutoCommit(false);
+            try {
+                statement.setFetchSize(i.chunkSize());
+                query(i);
+            } finally {
+                statement.setFetchSize(0);
+                if (autoCommit) {
+                    // Read-only, so there's nothing to lose ending it either way.
+                    c.rollback();
+                    c.setAutoCommit(true);
+                }
+            }
+        } catch (SQLException sql) {
+            throw new PlymouthException(sql, statement, statementRaw);
+        }
+    }
+
+    /**
+     * Passes on the rows once there's a chunk's worth. Called by the generated query after each row while streaming.
+     *
+     * @return The list to continue adding rows to.
+     */
+    final ArrayList<O> chunk(I i, ArrayList<O> rows) {
+        if (rows.size() < i.chunkSize()) return rows;
+        i.stream(rows);
+        return new ArrayList<>(rows.size());
+    }
+
+    /**
+     * Passes on the remaining rows, then completes the lookup. Called by the generated query at the end while streaming.
+     */
+    final void drain(I i, ArrayList<O> rows) {
+        if (!rows.isEmpty()) i.stream(rows);
+        i.complete(List.of());
+    }
+
     final void prepareStatement() throws PlymouthException {
         try {
             closeStatement();
-            statement = provider.getConnection().prepareStatement(statementRaw);
+            statement = connection.getConnection().prepareStatement(statementRaw);
         } catch (SQLException sql) {
             throw new PlymouthException(sql, statement, statementRaw);
         }
@@ -19,7 +19,13 @@ public final class BlockLookupRecord extends LookupRecord<BlockRecord> {
 
     public BlockLookupRecord(ServerWorld world, BlockPos minPosition, BlockPos maxPosition, UUID causeUuid, Instant minTime, Instant maxTime,
                              ServerWorld targetWorld, BlockPos minTPos, BlockPos maxTPos, BlockState beforeState, BlockState afterState, int page, int flags) {
-        super(world, minPosition, maxPosition, causeUuid, minTime, maxTime, page, flags);
+        this(world, minPosition, maxPosition, causeUuid, minTime, maxTime,
+                targetWorld, minTPos, maxTPos, beforeState, afterState, page, null, flags);
+    }
+
+    public BlockLookupRecord(ServerWorld world, BlockPos minPosition, BlockPos maxPosition, UUID causeUuid, Instant minTime, Instant maxTime,
+                             ServerWorld targetWorld, BlockPos minTPos, BlockPos maxTPos, BlockState beforeState, BlockState afterState, int page, Cursor cursor, int flags) {
+        super(world, minPosition, maxPosition, causeUuid, minTime, maxTime, page, cursor, flags);
         switch (flags >>> 6 & 3) {
             case 0 -> {
                 this.targetWorld = null;
@@ -54,6 +60,14 @@ public final class BlockLookupRecord extends LookupRecord<BlockRecord> {
         this(null, null, null, null, null, null, world, pos, null, null, null, page, FLAG_T_AT);
     }
 
+    @Override
+    public BlockLookupRecord next() {
+        var cursor = getNextCursor();
+        if (cursor == null) return null;
+        return new BlockLookupRecord(causeWorld, minPos, maxPos, causeUserId, minTime, maxTime,
+                targetWorld, minTPos, maxTPos, beforeState, afterState, page + 1, cursor, flags());
+    }
+
     @Override
     public RecordType getType() {
         return RecordType.LOOKUP_BLOCK;
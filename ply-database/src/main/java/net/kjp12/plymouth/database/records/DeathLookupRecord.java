@@ -19,7 +19,13 @@ public final class DeathLookupRecord extends LookupRecord<DeathRecord> {
 
     public DeathLookupRecord(ServerWorld world, BlockPos minPos, BlockPos maxPos, UUID causeUuid, Instant minTime, Instant maxTime,
                              ServerWorld targetWorld, Vec3d minTPos, Vec3d maxTPos, UUID targetUserId, UUID targetEntityId, int page, int flags) {
-        super(world, minPos, maxPos, causeUuid, minTime, maxTime, page, flags);
+        this(world, minPos, maxPos, causeUuid, minTime, maxTime,
+                targetWorld, minTPos, maxTPos, targetUserId, targetEntityId, page, null, flags);
+    }
+
+    public DeathLookupRecord(ServerWorld world, BlockPos minPos, BlockPos maxPos, UUID causeUuid, Instant minTime, Instant maxTime,
+                             ServerWorld targetWorld, Vec3d minTPos, Vec3d maxTPos, UUID targetUserId, UUID targetEntityId, int page, Cursor cursor, int flags) {
+        super(world, minPos, maxPos, causeUuid, minTime, maxTime, page, cursor, flags);
         switch (flags >>> 6 & 3) {
             case 0 -> {
                 this.targetWorld = null;
@@ -50,6 +56,14 @@ public final class DeathLookupRecord extends LookupRecord<DeathRecord> {
         this.targetEntityId = targetEntityId;
     }
 
+    @Override
+    public DeathLookupRecord next() {
+        var cursor = getNextCursor();
+        if (cursor == null) return null;
+        return new DeathLookupRecord(causeWorld, minPos, maxPos, causeUserId, minTime, maxTime,
+                targetWorld, minTPos, maxTPos, targetUserId, targetEntityId, page + 1, cursor, flags());
+    }
+
     @Override
     public Class<DeathRecord> getOutput() {
         return DeathRecord.class;
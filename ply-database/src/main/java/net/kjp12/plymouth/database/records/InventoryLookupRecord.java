@@ -20,10 +20,23 @@ public final class InventoryLookupRecord extends LookupRecord<InventoryRecord> {
 
     public InventoryLookupRecord(ServerWorld world, BlockPos minPosition, BlockPos maxPosition, UUID causeUuid, Instant minTime, Instant maxTime,
                                  ServerWorld targetWorld, BlockPos minTPos, BlockPos maxTPos, Item item, UUID targetUserId, UUID targetEntityId, int page, int flags) {
-        super(world, minPosition, maxPosition, causeUuid, minTime, maxTime, page, flags);
+        this(world, minPosition, maxPosition, causeUuid, minTime, maxTime,
+                targetWorld, minTPos, maxTPos, item, targetUserId, targetEntityId, page, null, flags);
+    }
+
+    public InventoryLookupRecord(ServerWorld world, BlockPos minPosition, BlockPos maxPosition, UUID causeUuid, Instant minTime, Instant maxTime,
+                                 ServerWorld targetWorld, BlockPos minTPos, BlockPos maxTPos, Item item, UUID targetUserId, UUID targetEntityId, int page, Cursor cursor, int flags) {
+        super(world, minPosition, maxPosition, causeUuid, minTime, maxTime, page, cursor, flags);
         this.targetWorld = targetWorld;
-        this.minTPos = minTPos;
-        this.maxTPos = maxTPos;
+        if (minTPos == null || maxTPos == null) {
+            this.minTPos = minTPos;
+            this.maxTPos = maxTPos;
+        } else {
+            int ax = minTPos.getX(), ay = minTPos.getY(), az = minTPos.getZ(),
+                    bx = maxTPos.getX(), by = maxTPos.getY(), bz = maxTPos.getZ();
+            this.minTPos = new BlockPos(Math.min(ax, bx), Math.min(ay, by), Math.min(az, bz));
+            this.maxTPos = new BlockPos(Math.max(ax, bx), Math.max(ay, by), Math.max(az, bz));
+        }
         this.item = item;
         this.targetUserId = targetUserId;
         this.targetEntityId = targetEntityId;
@@ -37,6 +50,14 @@ public final class InventoryLookupRecord extends LookupRecord<InventoryRecord> {
         return Registry.ITEM.getId(item).toString();
     }
 
+    @Override
+    public InventoryLookupRecord next() {
+        var cursor = getNextCursor();
+        if (cursor == null) return null;
+        return new InventoryLookupRecord(causeWorld, minPos, maxPos, causeUserId, minTime, maxTime,
+                targetWorld, minTPos, maxTPos, item, targetUserId, targetEntityId, page + 1, cursor, flags());
+    }
+
     @Override
     public RecordType getType() {
         return RecordType.LOOKUP_INVENTORY;
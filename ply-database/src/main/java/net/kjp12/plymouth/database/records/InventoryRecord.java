@@ -147,7 +147,9 @@ public final class InventoryRecord implements PlymouthRecord {
      * Creates an input stream based off of the NBT passed for the item.
      *
      * @return InputStream if NBT exists, else null.
+     * @deprecated Allocates a copy of the NBT per call. Inserts write the NBT into a reused buffer instead.
      */
+    @Deprecated
     @Nullable
     public InputStream mkNbtStream() {
         if (nbt == null) return null;
@@ -8,11 +8,13 @@ import net.minecraft.util.math.BlockPos;
 import org.jetbrains.annotations.NotNull;
 
 import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 
 import static net.kjp12.plymouth.database.TextUtils.lookupPlayerToText;
 import static net.kjp12.plymouth.database.TextUtils.positionToText;
@@ -51,15 +53,38 @@ public abstract class LookupRecord<T extends PlymouthRecord> implements Plymouth
 
     public static final int FLAG_ITEM = 0x200;
 
+    /**
+     * Indicates that lookup seeks past {@link #cursor} rather than offsetting by page.
+     * <p>
+     * Implied by passing a cursor to the constructor.
+     */
+    public static final int FLAG_SEEK = 0x400;
+
+    /**
+     * Indicates that lookup streams every matching row in chunks rather than returning a page.
+     * <p>
+     * Only set by {@link #streaming(int, int, Consumer)}.
+     */
+    public static final int FLAG_STREAM = 0x800;
+
     private final CompletableFuture<List<T>> future;
     public final ServerWorld causeWorld;
     public final BlockPos minPos, maxPos;
     public final UUID causeUserId;
     public final Instant minTime, maxTime;
     public final int page, limit;
-    private final int flags;
+    public final Cursor cursor;
+    private int flags;
+    private volatile Cursor nextCursor;
+    private int chunkSize, maxRows;
+    private Consumer<List<T>> consumer;
 
     public LookupRecord(ServerWorld causeWorld, BlockPos minPos, BlockPos maxPos, UUID causeUserId, Instant minTime, Instant maxTime, int page, int flags) {
+        this(causeWorld, minPos, maxPos, causeUserId, minTime, maxTime, page, null, flags);
+    }
+
+    public LookupRecord(ServerWorld causeWorld, BlockPos minPos, BlockPos maxPos, UUID causeUserId, Instant minTime, Instant maxTime, int page, Cursor cursor, int flags) {
+        if (cursor != null) flags |= FLAG_SEEK;
         this.future = new CompletableFuture<>();
         switch (flags >>> 2 & 3) {
             case 0 -> {
@@ -92,7 +117,45 @@ public abstract class LookupRecord<T extends PlymouthRecord> implements Plymouth
         this.maxTime = maxTime;
         this.page = page;
         this.limit = DatabaseHelper.PAGE_SIZE;
-        this.flags = flags;
+        this.cursor = cursor;
+        this.flags = flags & ~FLAG_STREAM;
+    }
+
+    /**
+     * Streams up to the given amount of the most recent matching rows to the consumer as they're read, using a
+     * server-side cursor, rather than returning a single page. Memory is bounded by the chunk size regardless of how
+     * many rows match.
+     * <p>
+     * The consumer is called from the thread running the lookup. Once every row has been passed on,
+     * the lookup completes with an empty list. Must be called before the lookup is queued.
+     *
+     * @param chunkSize The amount of rows to fetch at once, and to pass to the consumer at once.
+     * @param maxRows   The most rows to stream, being the limit of the query.
+     * @param consumer  The consumer to pass each chunk to.
+     * @return This lookup.
+     */
+    public LookupRecord<T> streaming(int chunkSize, int maxRows, Consumer<List<T>> consumer) {
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxRows = Math.max(1, maxRows);
+        this.consumer = Objects.requireNonNull(consumer, "consumer");
+        this.flags |= FLAG_STREAM;
+        return this;
+    }
+
+    /**
+     * @return The amount of rows to fetch and stream at once, or 0 if not streaming.
+     */
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Passes on a chunk of rows. Called by the statement handler while streaming.
+     *
+     * @param chunk The rows read since the last chunk.
+     */
+    public void stream(List<T> chunk) {
+        consumer.accept(chunk);
     }
 
     @Override
@@ -146,13 +209,53 @@ public abstract class LookupRecord<T extends PlymouthRecord> implements Plymouth
         return flags;
     }
 
+    /**
+     * @return The limit of the query, being the page size, or the most rows to stream if streaming.
+     */
     public int limit() {
-        return this.limit;
+        return chunkSize != 0 ? maxRows : this.limit;
     }
 
     public int offset() {
         return page * limit;
     }
 
+    /**
+     * Sets the position of the last row returned, for the next page to seek past.
+     * Called by the statement handler before completing.
+     *
+     * @param time The sort key of the last row, as stored.
+     * @param id   The tie-breaker of the last row.
+     */
+    public void setNextCursor(LocalDateTime time, String id) {
+        this.nextCursor = new Cursor(time, id);
+    }
+
+    /**
+     * @return The position of the last row returned, or null if nothing was returned or the lookup has yet to complete.
+     */
+    public Cursor getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Creates the same lookup for the following page, seeking past the last row of this one.
+     *
+     * @return The next page, or null if this page returned nothing.
+     */
+    public abstract LookupRecord<T> next();
+
     public abstract Class<T> getOutput();
+
+    /**
+     * Position of a row within a lookup, by the time of the row and its physical location.
+     * <p>
+     * The physical location is only unique within a partition, but as partitions never overlap in time,
+     * the pair is unique across the entire table.
+     *
+     * @param time The time of the row, being the UTC wall time as stored so that it's bound back exactly.
+     * @param id   The <code>ctid</code> of the row.
+     */
+    public record Cursor(LocalDateTime time, String id) {
+    }
 }
@@ -47,6 +47,12 @@ public class PlymouthLoggingDelegate implements Plymouth {
         }
     }
 
+    @Override
+    public boolean initializeLater(PlymouthException cause) {
+        Debug.logger.warn("Driver {} failed to reach the database while initialising.", delegate, cause);
+        return delegate.initializeLater(cause);
+    }
+
     @Override
     public void sendBatches() {
         try {
@@ -57,6 +63,11 @@ public class PlymouthLoggingDelegate implements Plymouth {
         }
     }
 
+    @Override
+    public long nextFlushDelay() {
+        return delegate.nextFlushDelay();
+    }
+
     @Override
     public void queue(PlymouthRecord record) {
         if (record == null) {
@@ -70,6 +81,19 @@ public class PlymouthLoggingDelegate implements Plymouth {
         }
     }
 
+    @Override
+    public void prefetch(ServerWorld world, BlockPos pos) {
+        if (world == null || pos == null) {
+            Debug.logger.warn("Null detected on prefetch on driver {}; world={}, pos={}", delegate, world, pos);
+            Debug.printRichStack();
+        } else try {
+            delegate.prefetch(world, pos);
+        } catch (Throwable exception) {
+            Debug.logger.error("Driver {} threw exception processing prefetch. world={}, pos={}", delegate, world, pos, exception);
+            Debug.printRichStack();
+        }
+    }
+
     @Override
     public void breakBlock(ServerWorld world, BlockPos pos, BlockState state, NbtCompound nbt, @Nullable Target cause) {
         if (world == null || pos == null || state == null || cause == null) {
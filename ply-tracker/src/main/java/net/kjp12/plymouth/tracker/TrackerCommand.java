@@ -17,6 +17,7 @@ import net.kjp12.plymouth.database.PlymouthNoOP;
 import net.kjp12.plymouth.database.records.*;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.ClickEvent;
 import net.minecraft.text.LiteralText;
 import net.minecraft.text.TranslatableText;
 import net.minecraft.util.Formatting;
@@ -30,8 +31,10 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 
 import static net.minecraft.server.command.CommandManager.argument;
@@ -52,9 +55,17 @@ public class TrackerCommand {
     private static final SimpleCommandExceptionType
             RECORD_NOT_DEFINED = new SimpleCommandExceptionType(new TranslatableText("commands.plymouth.tracker.invalid.record"));
 
+    private static final SimpleCommandExceptionType
+            NO_NEXT_PAGE = new SimpleCommandExceptionType(new TranslatableText("commands.plymouth.tracker.next.none"));
+
     private static final DynamicCommandExceptionType
             PARSER_INVALID = new DynamicCommandExceptionType(i -> new TranslatableText("commands.plymouth.tracker.invalid", i));
 
+    /**
+     * The last completed lookup by source name, for the next page to seek past.
+     */
+    private static final Map<String, LookupRecord<?>> lastLookups = new ConcurrentHashMap<>();
+
     public static void register(CommandDispatcher<ServerCommandSource> dispatcher, boolean dedicated) {
         // We cannot setup commands if the database is unavailable.
         if (DatabaseHelper.database instanceof PlymouthNoOP) return;
@@ -69,6 +80,9 @@ public class TrackerCommand {
         var p$lookup = literal("l").requires(REQUIRE_LOOKUP_PERMISSION)
                 .then(argument("query", StringArgumentType.greedyString()).suggests(TrackerCommand::lookupSuggestions).executes(TrackerCommand::onLookup)).build();
         p$tracker.then(p$lookup).then(literal("lookup").redirect(p$lookup));
+        p$tracker
+                .then(literal("n").requires(REQUIRE_LOOKUP_PERMISSION).executes(TrackerCommand::onNext))
+                .then(literal("next").requires(REQUIRE_LOOKUP_PERMISSION).executes(TrackerCommand::onNext));
 
         // TODO: A better forking system to allow rollback and restore to be specific.
         //  Hachimitsu Commander maybe able to take place of this in the future.
@@ -91,11 +105,21 @@ public class TrackerCommand {
             source.sendFeedback(Tracker.INSPECT_END, false);
         } else {
             iim.setManager(new TrackerInspectionManagerInjection());
+            DatabaseHelper.database.prefetch(source.getWorld(), player.getBlockPos());
             source.sendFeedback(Tracker.INSPECT_START, false);
         }
         return Command.SINGLE_SUCCESS;
     }
 
+    private static int onNext(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+        var source = ctx.getSource();
+        var last = lastLookups.get(source.getName());
+        var next = last == null ? null : last.next();
+        if (next == null) throw NO_NEXT_PAGE.create();
+        submit(source, next);
+        return Command.SINGLE_SUCCESS;
+    }
+
     private static StringBuilder mkSb(String str) {
         var sb = new StringBuilder(str);
         if (sb.length() != 0 && sb.charAt(sb.length() - 1) != ' ') sb.append(' ');
@@ -366,8 +390,12 @@ public class TrackerCommand {
                     world, minPosition, maxPosition, null, null, null, page, flags);
             default -> throw new IllegalArgumentException(type.toString());
         };
+        submit(ctx.getSource(), lookup);
+        return 0;
+    }
+
+    private static void submit(ServerCommandSource player, LookupRecord<?> lookup) {
         DatabaseHelper.database.queue(lookup);
-        final var player = ctx.getSource();
         lookup.getFuture().thenAcceptAsync(l -> {
             try {
                 if ((lookup.flags() & LookupRecord.FLAG_C_AT) != 0) {
@@ -380,6 +408,14 @@ public class TrackerCommand {
                     }
                 }
                 player.sendFeedback(new TranslatableText("commands.plymouth.tracker.lookup", lookup.toText(), "UTC").formatted(Formatting.DARK_GRAY), false);
+                // A short page is the last page; anything more would be an empty lookup.
+                if (l.size() >= lookup.limit() && lookup.getNextCursor() != null) {
+                    lastLookups.put(player.getName(), lookup);
+                    player.sendFeedback(new TranslatableText("commands.plymouth.tracker.next").styled(s -> s.withFormatting(Formatting.GRAY, Formatting.UNDERLINE)
+                            .withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/plymouth tracker next"))), false);
+                } else {
+                    lastLookups.remove(player.getName());
+                }
             } catch (Throwable t) {
                 Tracker.logger.error("aaaa", t);
                 throw new Error(t);
@@ -389,7 +425,6 @@ public class TrackerCommand {
             player.sendFeedback(new LiteralText(t.getLocalizedMessage()).formatted(Formatting.RED), false);
             return null;
         });
-        return 0;
     }
 
     @Retention(RetentionPolicy.RUNTIME)
@@ -25,6 +25,8 @@ public class TrackerInspectionManagerInjection implements InteractionManagerInje
     public ActionResult onBreakBlock(ServerPlayerEntity player, final ServerWorld world, final BlockPos pos, Direction direction) {
         var lookup = new BlockLookupRecord(world, pos, 0);
         DatabaseHelper.database.queue(lookup);
+        // Keeps the history around wherever the inspector is clicking loaded, after the click's own lookup.
+        DatabaseHelper.database.prefetch(world, pos);
         lookup.getFuture().thenAcceptAsync(l -> {
             for (var r : l) {
                 player.sendMessage(r.toTextNoPosition(), false);
@@ -42,6 +44,7 @@ public class TrackerInspectionManagerInjection implements InteractionManagerInje
         if (hand != Hand.MAIN_HAND) return ActionResult.CONSUME;
         var lookup = new InventoryLookupRecord(world, hitResult.getBlockPos(), 0);
         DatabaseHelper.database.queue(lookup);
+        DatabaseHelper.database.prefetch(world, hitResult.getBlockPos());
         lookup.getFuture().thenAcceptAsync(l -> {
             for (var r : l) {
                 player.sendMessage(r.toTextNoPosition(), false);